@@ -0,0 +1,54 @@
+package pasture;
+
+/**
+ * Creates the pastures the benchmarks run on, each with settings of
+ * its own.
+ */
+final class BenchmarkPastures {
+    /* Seed of every pasture, so that runs can be compared */
+    static final long SEED = 1;
+
+    private BenchmarkPastures() {
+    }
+
+    /**
+     * Creates a square pasture without a GUI where the given fraction
+     * of the cells are taken at the start, 10% of them by fences, 50% by
+     * plants, 35% by sheep and 5% by wolves.
+     */
+    static Pasture create(int size, double density) {
+        int entities = (int) (size * size * density);
+        PastureProperties properties = createProperties(size);
+
+        properties.setValue("fence.count_at_start", String.valueOf(entities / 10));
+        properties.setValue("plant.count_at_start", String.valueOf(entities / 2));
+        properties.setValue("sheep.count_at_start", String.valueOf(entities * 35 / 100));
+        properties.setValue("wolf.count_at_start", String.valueOf(entities / 20));
+
+        return new Pasture(properties, false, SEED);
+    }
+
+    /**
+     * Creates a square pasture where the given fraction of the cells,
+     * counting the fence around it, are taken by fences and nothing
+     * else is in it.
+     */
+    static Pasture createFenced(int size, double fill) {
+        int border = 4 * (size - 1);
+        PastureProperties properties = createProperties(size);
+
+        properties.setValue("fence.count_at_start", String.valueOf(Math.max((int) (size * size * fill) - border, 0)));
+        properties.setValue("plant.count_at_start", "0");
+        properties.setValue("sheep.count_at_start", "0");
+        properties.setValue("wolf.count_at_start", "0");
+
+        return new Pasture(properties, false, SEED);
+    }
+
+    private static PastureProperties createProperties(int size) {
+        PastureProperties properties = new PastureProperties();
+        properties.setValue("pasture.width", String.valueOf(size));
+        properties.setValue("pasture.height", String.valueOf(size));
+        return properties;
+    }
+}
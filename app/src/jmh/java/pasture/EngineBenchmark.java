@@ -0,0 +1,38 @@
+package pasture;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures one tick of the engine, the way the timer of the GUI gives
+ * it, on pastures of different sizes and densities.
+ *
+ * The populations change as the pasture is ticked, so every iteration
+ * starts over from a new pasture created with the same seed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+    @Param({ "50", "200", "500" })
+    public int size;
+
+    /** Fraction of the cells taken at the start */
+    @Param({ "0.1", "0.4" })
+    public double density;
+
+    private Engine engine;
+
+    @Setup(Level.Iteration)
+    public void createPasture() {
+        engine = BenchmarkPastures.create(size, density).getEngine();
+    }
+
+    @Benchmark
+    public void tick() {
+        engine.actionPerformed(null);
+    }
+}
@@ -0,0 +1,80 @@
+package pasture;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the small things an entity does many times each tick:
+ * moving in the pasture and working out which steps to try to get
+ * towards or away from a cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityBenchmark {
+    private static final int TARGETS = 1024;
+
+    private Pasture pasture;
+    private Alive   sheep;
+    private int     from, to;
+    private int[]   targets;
+    private int     next;
+
+    @Setup
+    public void createPasture() {
+        pasture = BenchmarkPastures.create(200, 0.2);
+
+        for (Entity e : pasture.getEntities()) {
+            if (!e.getType().equals("sheep"))
+                continue;
+
+            /* Any free cell around the sheep but its own will do */
+            int[] free = new int[9];
+            int n = pasture.getFreeNeighbours(e, free);
+            for (int i = 0; i < n && sheep == null; i++) {
+                if (free[i] != pasture.getCell(e)) {
+                    sheep = (Alive) e;
+                    from = pasture.getCell(e);
+                    to = free[i];
+                }
+            }
+
+            if (sheep != null)
+                break;
+        }
+
+        if (sheep == null)
+            throw new IllegalStateException("No sheep that can move in the pasture");
+
+        PastureRandom random = new PastureRandom(BenchmarkPastures.SEED);
+        targets = new int[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targets[i] = pasture.getCell(random.nextInt(pasture.getWidth()), random.nextInt(pasture.getHeight()));
+        }
+    }
+
+    private int nextTarget() {
+        next = (next + 1) & (TARGETS - 1);
+        return targets[next];
+    }
+
+    /** Moves a sheep to a free neighbour and back again */
+    @Benchmark
+    public void moveEntityThereAndBack() {
+        pasture.moveEntity(sheep, to);
+        pasture.moveEntity(sheep, from);
+    }
+
+    @Benchmark
+    public int[] getDirectionsTowards() {
+        return sheep.getDirections(nextTarget(), false);
+    }
+
+    @Benchmark
+    public int[] getDirectionsAway() {
+        return sheep.getDirections(nextTarget(), true);
+    }
+}
@@ -0,0 +1,42 @@
+package pasture;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures finding a free position for a new sheep on boards that are
+ * nearly full of fences, and filling such a board with fences when the
+ * pasture is created.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreePositionBenchmark {
+    /** Fraction of the cells taken by fences */
+    @Param({ "0.5", "0.9", "0.99", "0.999" })
+    public double fill;
+
+    private Pasture pasture;
+    private Entity  sheep;
+
+    @Setup
+    public void createPasture() {
+        pasture = BenchmarkPastures.createFenced(200, fill);
+        sheep = pasture.createEntity(pasture.getConfig().id("sheep"));
+    }
+
+    @Benchmark
+    public Point getFreePosition() {
+        return pasture.getFreePosition(sheep);
+    }
+
+    /** Creates the pasture again, with the settings from the setup */
+    @Benchmark
+    public Pasture createFenced() {
+        return new Pasture(pasture.getProperties(), false, BenchmarkPastures.SEED);
+    }
+}
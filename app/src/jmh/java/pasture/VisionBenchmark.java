@@ -0,0 +1,94 @@
+package pasture;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what it costs for a sheep in a big pasture to look around at
+ * different vision lengths: collecting everything in sight, scanning
+ * every cell in sight for the nearest wolf, and asking the spatial
+ * index of the pasture for the nearest wolf.
+ *
+ * Each call looks around from the next sheep in the pasture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisionBenchmark {
+    @Param({ "1", "2", "3", "5", "8", "10", "15", "20", "25", "30" })
+    public int vision;
+
+    private Pasture         pasture;
+    private Entity[]        sheep;
+    private int             wolf;
+    private ClosestWolf     scan;
+    private int             next;
+
+    /* Finds the nearest wolf the same way the index does */
+    private static class ClosestWolf implements EntityVisitor {
+        Pasture pasture;
+        int wolf, x, y, best, bestSteps;
+
+        public void visit(Entity e, int cell) {
+            if (e.getSpecies() != wolf)
+                return;
+
+            int steps = Math.max(Math.abs(pasture.getX(cell) - x), Math.abs(pasture.getY(cell) - y));
+            if (best < 0 || steps < bestSteps) {
+                best = cell;
+                bestSteps = steps;
+            }
+        }
+    }
+
+    @Setup
+    public void createPasture() {
+        pasture = BenchmarkPastures.create(500, 0.2);
+        wolf = pasture.getConfig().id("wolf");
+
+        List<Entity> found = new ArrayList<Entity>();
+        for (Entity e : pasture.getEntities()) {
+            if (e.getType().equals("sheep"))
+                found.add(e);
+        }
+        sheep = found.toArray(new Entity[found.size()]);
+
+        scan = new ClosestWolf();
+        scan.pasture = pasture;
+        scan.wolf = wolf;
+    }
+
+    private Entity nextSheep() {
+        if (next == sheep.length)
+            next = 0;
+
+        return sheep[next++];
+    }
+
+    @Benchmark
+    public Collection<Entity> getEntitiesByVision() {
+        return pasture.getEntitiesByVision(nextSheep(), vision);
+    }
+
+    @Benchmark
+    public int scanForNearestWolf() {
+        Entity e = nextSheep();
+        int cell = pasture.getCell(e);
+
+        scan.x = pasture.getX(cell);
+        scan.y = pasture.getY(cell);
+        scan.best = -1;
+        pasture.visitEntitiesByVision(e, vision, scan);
+
+        return scan.best;
+    }
+
+    @Benchmark
+    public int getNearestWolf() {
+        return pasture.getNearest(wolf, pasture.getCell(nextSheep()), vision);
+    }
+}
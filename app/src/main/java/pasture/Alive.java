@@ -1,128 +1,175 @@
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+package pasture;
+
 import javax.swing.*;
 
+/**
+ * Something that moves, eats, starves and has babies. When each of
+ * those is due is kept by the pasture by handle (see EntityStore), and
+ * the entity is only ticked in the ticks one of them is.
+ */
 abstract class Alive implements Entity {
     protected final Pasture pasture;
-    private Point lastPosition;
-    private int liveDelay, moveDelay, duplicateDelay;
-    private String type;
+    private final int species;
+    private int handle = -1;
 
-    public abstract ImageIcon getImage();
-    public abstract boolean isCompatible(Entity otherEntity);
     protected abstract Entity clone();
 
-    public Alive(Pasture pasture, String type, int ld, int md, int dd) {
+    public Alive(Pasture pasture, int species) {
         this.pasture = pasture;
-        this.type = type;
-        lastPosition = null; /* No last position when an entity is born */
-        liveDelay = ld;
-        moveDelay = md;
-        duplicateDelay = dd;
+        this.species = species;
     }
 
-    public String getType() { return type; }
+    public ImageIcon getImage() { return getConfig().getImage(); }
+
+    public boolean isCompatible(Entity otherEntity) {
+        return pasture.getConfig().isCompatible(species, otherEntity.getSpecies());
+    }
+
+    public String getType() { return getConfig().getType(); }
+
+    public int getSpecies() { return species; }
 
+    public int getHandle() { return handle; }
+
+    public void setHandle(int handle) { this.handle = handle; }
+
+    /* The current settings of this species */
+    private SpeciesConfig getConfig() {
+        return pasture.getConfig().species(species);
+    }
+
+    /**
+     * Does everything this entity should do during one tick, right
+     * away. This is how the entity is ticked by the sequential engine.
+     */
     public void tick() {
-        /* Reduce all defaults each tick so we know when to make an action */
-        liveDelay--;
-        moveDelay--;
-        duplicateDelay--;
-
-        /* An entity will die if liveDelay reaches 0 */
-        if (liveDelay == 0) {
-            pasture.removeEntity(this);
+        EntityStore store = pasture.getStore();
+        int now = pasture.getTick();
+
+        /* An entity will die if it hasn't eaten for no_food_limit ticks */
+        if (store.getLiveDue(handle) <= now) {
+            pasture.removeStarved(this);
             return;
         }
 
         /* If an entity is old enough to duplicate, find free neighbors and make a baby!
          * If there are no free slots, try next tick
          */
-        if (duplicateDelay <= 0) {
-            Entity clone = (Entity) this.clone();
-
-            if (duplicateEntity(clone)) {
-                duplicateDelay = PastureProperties.getInstance().getIntValue(getType() + ".duplicate_limit");
-            }
+        if (store.getDuplicateDue(handle) <= now) {
+            store.setPlannedBirth(handle, planBirth(pasture.getRandom()));
+            commitBirth(store, now);
         }
 
-        /* If the moveDelay (some kind of reverse speed (lower = faster) reaches zero
+        /* If the moveDelay (some kind of reverse speed (lower = faster) has passed
          * calculate what the next move will be and go there!
-         * 
+         *
          * If landed on a spot where other entities are found, try to eat them!
          */
-        if (moveDelay == 0) {
-            Point newPosition = getNextMove();
+        if (store.getMoveDue(handle) <= now) {
+            store.setPlannedMove(handle, getNextMove(pasture.getRandom()));
+            commitMove(store, now);
+        }
+    }
 
-            if (newPosition != null) {
-                if (tryToEat(newPosition)) {
-                    liveDelay = PastureProperties.getInstance().getIntValue(getType() + ".no_food_limit");
-                }
+    /**
+     * Decides where to go and where to put a baby during this tick,
+     * without changing anything in the pasture.
+     */
+    public void plan(PastureRandom random) {
+        EntityStore store = pasture.getStore();
+        int now = pasture.getTick();
 
-                lastPosition = pasture.getPosition(this);
-                pasture.moveEntity(this, newPosition);
-            }
+        store.setPlannedBirth(handle, -1);
+        store.setPlannedMove(handle, -1);
 
-            moveDelay = PastureProperties.getInstance().getIntValue(getType() + ".move_delay");
-        }
-    }
+        if (store.getLiveDue(handle) <= now)
+            return;
 
-    private static <X> X getRandomMember(List<X> c) {
-        if (c.size() == 0)
-            return null;
+        if (store.getDuplicateDue(handle) <= now)
+            store.setPlannedBirth(handle, planBirth(random));
 
-        return c.get((int)(Math.random() * c.size()));
+        if (store.getMoveDue(handle) <= now)
+            store.setPlannedMove(handle, getNextMove(random));
     }
 
-    /* If it's time to make a baby, check free neighbors and duplicate
-     * if free ones are found
+    /**
+     * Carries out what was planned. Things planned may not be possible
+     * anymore since others have done their things since, in which case
+     * this entity will have to try again.
      */
-    private boolean duplicateEntity(Entity child) {
-        List<Point> freeNeighbors = pasture.getFreeNeighbours(this);
+    public void commit() {
+        EntityStore store = pasture.getStore();
+        int now = pasture.getTick();
 
-        if (freeNeighbors.size() > 0) {
-            pasture.addEntity(child, getRandomMember(freeNeighbors));
-            return true;
+        if (store.getLiveDue(handle) <= now) {
+            pasture.removeStarved(this);
+            return;
         }
 
-        return false;
+        if (store.getDuplicateDue(handle) <= now)
+            commitBirth(store, now);
+
+        if (store.getMoveDue(handle) <= now)
+            commitMove(store, now);
     }
 
-    /* Each time a move is made, scan the terrain and try to eat what's found */
-    private boolean tryToEat(Point eatAt) {
-        Collection<Entity> whosAt = pasture.getEntitiesAt(eatAt);
-        String isEating = PastureProperties.getInstance().getValue(getType() + ".is_eating");
+    private void commitBirth(EntityStore store, int now) {
+        int birth = store.getPlannedBirth(handle);
 
-        if (whosAt == null)
-            return false;
+        if (birth >= 0 && pasture.freeSpace(birth, this)) {
+            pasture.addBorn(clone(), birth);
+            store.setDuplicateDue(handle, EntityStore.due(now, getConfig().getDuplicateLimit()));
+        } else {
+            store.setDuplicateDue(handle, now + 1);
+        }
+    }
 
-        for (Entity e : whosAt) {
-            if (e.getType().equals(isEating)) {
-                pasture.removeEntity(e);
-                return true;
+    private void commitMove(EntityStore store, int now) {
+        int move = store.getPlannedMove(handle);
+
+        if (move >= 0 && pasture.freeSpace(move, this)) {
+            if (tryToEat(move)) {
+                store.setLiveDue(handle, EntityStore.due(now, getConfig().getNoFoodLimit()));
             }
+
+            store.setLastCell(handle, pasture.getCell(this));
+            pasture.moveEntity(this, move);
         }
-        return false;
+
+        store.setMoveDue(handle, EntityStore.due(now, getConfig().getMoveDelay()));
+    }
+
+    /* Picks one of the first n values in the buffer, -1 if it's empty */
+    private static int getRandomMember(int[] buffer, int n, PastureRandom random) {
+        if (n == 0)
+            return -1;
+
+        return buffer[random.nextInt(n)];
     }
 
-    /* Compare two points (a and b) and test which one is closer to point toCheck
-     * This is used when the terrain is scanned by vision length.
-     * Since the list returned will stretch from far most top left to down right
-     * of the vision, we need compare everything to see what's closest
+    /* If it's time to make a baby, check free neighbors and pick one
+     * for the baby if free ones are found
      */
-    private Point getClosestPoint(Point toCheck, Point a, Point b) {
-        int axDiff = toCheck.x > a.x ? toCheck.x - a.x : a.x - toCheck.x;
-        int ayDiff = toCheck.y > a.y ? toCheck.y - a.y : a.y - toCheck.y;
-        int bxDiff = toCheck.x > b.x ? toCheck.x - b.x : b.x - toCheck.x;
-        int byDiff = toCheck.y > b.y ? toCheck.x - b.y : b.y - toCheck.y;
-
-        if (axDiff <= bxDiff && ayDiff <= byDiff) {
-            return a;
-        } else {
-            return b;
+    private int planBirth(PastureRandom random) {
+        int[] freeNeighbors = Scratch.get().neighbours;
+        int n = pasture.getFreeNeighbours(this, freeNeighbors);
+
+        return getRandomMember(freeNeighbors, n, random);
+    }
+
+    /* Each time a move is made, scan the terrain and try to eat what's found,
+     * or graze on the plant there when the plants are a field */
+    private boolean tryToEat(int eatAt) {
+        PastureConfig config = pasture.getConfig();
+
+        for (int i = 0; i < pasture.getEntityCount(eatAt); i++) {
+            Entity e = pasture.getEntityAt(eatAt, i);
+            if (config.eats(species, e.getSpecies())) {
+                pasture.removeEaten(e);
+                return true;
+            }
         }
+        return pasture.graze(species, eatAt);
     }
 
     /* getNextMove is based on the vision length of the entity. If an entity can
@@ -130,245 +177,137 @@ abstract class Alive implements Entity {
      * If no scary creatures is around but food is found, move towards the food.
      * If none of the above is found, just continue the same way as before or a random
      * direction if trapped
-     * 
+     *
      * If more than one is found (of any kind), act on the closest one
+     *
+     * The cell to move to is returned, or -1 if there is nowhere to go.
      */
-    private Point getNextMove() {   
-        int vision = PastureProperties.getInstance().getIntValue(this.getType() + ".vision_length");
-
-        Collection<Entity> seen = pasture.getEntitiesByVision(this, vision);
-        Point seenWolf = null;
-        Point seenPlant = null;
-        Point seenSheep = null;
-        Point thisPoint = pasture.getEntityPosition(this);
-
-        /* So we loop through the WHOLE list first. This is because it's more important to
-         * run away from a wolf than towards a plant. Each time anything at all is found,
-         * compare it with other entities of the same type to see which one is closer.
-         * When the loop is done, this should represent the closest of each type (if any)
+    private int getNextMove(PastureRandom random) {
+        PastureConfig config = pasture.getConfig();
+        int vision = config.species(species).getVisionLength();
+        int here = pasture.getCell(this);
+
+        /* Based on what the entity is trying to avoid or trying to eat we need to
+         * prioritize the next move. It's more important to run away from a wolf
+         * than towards a plant. The spatial indexes of the pasture know which one
+         * in sight is the closest.
          */
-        for (Entity someone : seen) {
-            Point someonePosition = pasture.getEntityPosition(someone);
+        int[] avoid = config.getPredators(species);
+        int[] lookFor = config.getPrey(species);
 
-            if (someone.getType().equals("wolf")) {
-                if (seenWolf != null) {
-                    seenWolf = getClosestPoint(thisPoint, seenWolf, someonePosition);
-                } else {
-                    seenWolf = someonePosition;
-                }
-            } else if (someone.getType().equals("sheep")) {
-                if (seenSheep != null) {
-                    seenSheep = getClosestPoint(thisPoint, seenSheep, someonePosition);
-                } else {
-                    seenSheep = someonePosition;
-                }
-            } else if (someone.getType().equals("plant")) {
-                if (seenPlant != null) {
-                    seenPlant = getClosestPoint(thisPoint, seenPlant, someonePosition);
-                } else {
-                    seenPlant = someonePosition;
-                }
-            }
+        int enemy = pasture.getNearest(avoid, here, vision);
+        if (enemy >= 0) {
+            return moveAwayFrom(enemy, random);
         }
 
-        /* Based on what the entity is trying to avoid or trying to eat we need to
-         * prioritize the next move.
-         */
-        String avoid = PastureProperties.getInstance().getValue(this.getType() + ".is_eaten_by");
-        String lookFor = PastureProperties.getInstance().getValue(this.getType() + ".is_eating");
-
-        if (avoid.equals("wolf") && seenWolf != null) {
-            return moveAwayFrom(seenWolf);
-        } else if (lookFor.equals("sheep") && seenSheep != null) {
-            return moveTowards(seenSheep);
-        } else if (lookFor.equals("plant") && seenPlant != null) {
-            return moveTowards(seenPlant);
-        } else {
-            return continueDirection();
+        int food = pasture.getNearest(lookFor, here, vision);
+        if (food >= 0) {
+            return moveTowards(food, random);
         }
+
+        return continueDirection(random);
     }
 
     /* Below are the methods moveAwayFrom, moveTowards, continueDirection and randomDirection
-     * moveAwayFrom and moveTowards need a point as input and will get a list of valid moves
-     * based on that point
-     * 
-     * continueDirection will use lastPosition to calculate how to move and randomDirection
+     * moveAwayFrom and moveTowards need a cell as input and will get a list of valid moves
+     * based on that cell
+     *
+     * continueDirection will use lastCell to calculate how to move and randomDirection
      * will chose a random free neighbor.
      */
-    private Point moveAwayFrom(Point p) {
-        ArrayList<Point> awayFrom = getDirections(p, true); 
-        for (Point point : awayFrom) {
-            if (pasture.freeSpace(point, this)) {
-                return point;
-            }
-        }
+    private int moveAwayFrom(int cell, PastureRandom random) {
+        int move = firstFree(cell, true);
+        return move >= 0 ? move : continueDirection(random);
+    }
 
-        return continueDirection();
+    private int moveTowards(int cell, PastureRandom random) {
+        int move = firstFree(cell, false);
+        return move >= 0 ? move : continueDirection(random);
     }
 
-    private Point moveTowards(Point p) {
-        ArrayList<Point> towards = getDirections(p, false); 
-        for (Point point : towards) {
-            if (pasture.freeSpace(point, this)) {
-                return point;
-            }
-        }
+    private int continueDirection(PastureRandom random) {
+        int lastCell = pasture.getStore().getLastCell(handle);
+        if (lastCell < 0)
+            return randomDirection(random);
 
-        return continueDirection();
+        int move = firstFree(lastCell, true);
+        return move >= 0 ? move : randomDirection(random);
     }
 
-    private Point continueDirection() {
-        Point lastPos = lastPosition;
+    private int randomDirection(PastureRandom random) {
+        int[] freeNeighbors = Scratch.get().neighbours;
+        int n = pasture.getFreeNeighbours(this, freeNeighbors);
+
+        return getRandomMember(freeNeighbors, n, random);
+    }
 
-        if (lastPos == null)
-            return randomDirection();
+    /* Returns the first free cell among the directions towards or away from a cell */
+    private int firstFree(int cell, boolean away) {
+        int[] directions = getDirections(cell, away);
 
-        ArrayList<Point> continuePos = getDirections(lastPos, true);
-        for (Point point : continuePos) {
-            if (pasture.freeSpace(point, this)) {
-                return point;
+        int here = pasture.getCell(this);
+        int x = pasture.getX(here);
+        int y = pasture.getY(here);
+
+        for (int i = 0; i < directions.length; i += 2) {
+            int toX = x + directions[i];
+            int toY = y + directions[i + 1];
+
+            if (pasture.freeSpace(toX, toY, this)) {
+                return pasture.getCell(toX, toY);
             }
         }
 
-        return randomDirection();
+        return -1;
     }
 
-    private Point randomDirection() {   
-        List<Point> freeNeighbors = pasture.getFreeNeighbours(this);
-        if (freeNeighbors.size() > 0) {
-            return getRandomMember(freeNeighbors);
+    /* The method to calculate what steps actually represent towards or away from a given cell.
+     * The steps are dx, dy pairs in the order they should be tried, looked up in STEPS by
+     * the direction of the step straight towards the cell. Away from is the same thing mirrored.
+     */
+    int[] getDirections(int cell, boolean away) {
+        int here = pasture.getCell(this);
+
+        int dx = Integer.signum(pasture.getDx(here, cell));
+        int dy = Integer.signum(pasture.getDy(here, cell));
+
+        if (away) {
+            dx = -dx;
+            dy = -dy;
         }
 
-        return null;
+        return STEPS[(dx + 1) + (dy + 1) * 3];
     }
 
-    /* The method to calculate what points actually represet towards or away from a given point */
-    private ArrayList<Point> getDirections(Point p2, boolean away) {
-        ArrayList<Point> towards = new ArrayList<Point>();
-        ArrayList<Point> awayFrom = new ArrayList<Point>();
-
-        Point p1 = pasture.getEntityPosition(this);
-
-        /* This is some test calculation with Math library since I'm not really satisfied with the original
-         * implementation
-         * 
-
-        double angle = Math.toDegrees(Math.atan2(p2.y - p1.y, p2.x - p1.x));
-        if (angle < 0.0)
-            angle += 360;
-
-        [Compare the double value of angle here]
-
-         * I didn't really seem to reduce my code with this calculation but the angle will tell direction
-         * 0.0 = right
-         * 90.0 = down
-         * 180.0 = left
-         * 270.0 = up
-         * 
-         * However, if the angle is i.e. 65.25 degrees, I still need to add three options to move towards it
-         * and three options to move away from it. Since there are four intervals with degrees (0-90, 90-180, 180-270, 270-359)
-         * This would be 4 * (3 away + 3 towards) = 24 array adds + some extra if x or y is the same.
-         */ 
-
-        /* This is my original way. A lot of manual work but it's working as intended.
-         * The setup is a grid calculating where p2 is in relation to p1
-         * I.e if p1.x is > p2.x, p1 is more to the right and entity should go to x = p1.x + 1 to get closer
-         */
+    /* The steps to try for each of the nine directions, indexed by (dx + 1) + (dy + 1) * 3.
+     *
+     * The step straight in the direction is always tried first. If the direction is a diagonal
+     * the two steps along each axis are next, otherwise the two steps next to the straight one
+     * followed by the two sideways steps.
+     *
+     * Standing still has no steps. This should happen the FIRST time an object is born and want
+     * to move. Or this could happen if an object has been trapped and can now move again.
+     * If there are no previous direction, this turn should be random and the next move will be
+     * the same direction
+     */
+    private static final int[][] STEPS = new int[9][];
+    static {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int[] steps;
+
+                if (dx != 0 && dy != 0) {
+                    steps = new int[]{ dx, dy, dx, 0, 0, dy };
+                } else if (dx != 0) {
+                    steps = new int[]{ dx, 0, dx, 1, dx, -1, 0, 1, 0, -1 };
+                } else if (dy != 0) {
+                    steps = new int[]{ 0, dy, -1, dy, 1, dy, -1, 0, 1, 0 };
+                } else {
+                    steps = new int[0];
+                }
 
-        if (p1.x > p2.x) {
-            if (p1.y > p2.y) {
-                awayFrom.add(new Point(p1.x + 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x + 1, p1.y));
-                awayFrom.add(new Point(p1.x, p1.y + 1));
-
-                towards.add(new Point(p1.x - 1, p1.y - 1));
-                towards.add(new Point(p1.x - 1, p1.y));
-                towards.add(new Point(p1.x, p1.y - 1));
-            } else if (p1.y < p2.y) {
-                awayFrom.add(new Point(p1.x + 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x + 1, p1.y));
-                awayFrom.add(new Point(p1.x, p1.y - 1));
-
-                towards.add(new Point(p1.x - 1, p1.y + 1));
-                towards.add(new Point(p1.x - 1, p1.y));
-                towards.add(new Point(p1.x, p1.y + 1));
-            } else {
-                awayFrom.add(new Point(p1.x + 1, p1.y));
-                awayFrom.add(new Point(p1.x + 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x + 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x, p1.y + 1));
-                awayFrom.add(new Point(p1.x, p1.y - 1));
-
-                towards.add(new Point(p1.x - 1, p1.y));
-                towards.add(new Point(p1.x - 1, p1.y + 1));
-                towards.add(new Point(p1.x - 1, p1.y - 1));
-                towards.add(new Point(p1.x, p1.y + 1));
-                towards.add(new Point(p1.x, p1.y - 1));
-            }
-        } else if (p1.x < p2.x) {
-            if (p1.y < p2.y) {
-                awayFrom.add(new Point(p1.x - 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y));
-                awayFrom.add(new Point(p1.x, p1.y - 1));
-
-                towards.add(new Point(p1.x + 1, p1.y + 1));
-                towards.add(new Point(p1.x + 1, p1.y));
-                towards.add(new Point(p1.x, p1.y + 1));
-            } else if (p1.y > p2.y) {
-                awayFrom.add(new Point(p1.x - 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y));
-                awayFrom.add(new Point(p1.x, p1.y + 1));
-
-                towards.add(new Point(p1.x + 1, p1.y - 1));
-                towards.add(new Point(p1.x + 1, p1.y));
-                towards.add(new Point(p1.x, p1.y - 1));
-            } else {
-                awayFrom.add(new Point(p1.x - 1, p1.y));
-                awayFrom.add(new Point(p1.x - 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x, p1.y + 1));
-                awayFrom.add(new Point(p1.x, p1.y - 1));
-
-                towards.add(new Point(p1.x + 1, p1.y));
-                towards.add(new Point(p1.x + 1, p1.y + 1));
-                towards.add(new Point(p1.x + 1, p1.y - 1));
-                towards.add(new Point(p1.x, p1.y + 1));
-                towards.add(new Point(p1.x, p1.y - 1));
-            }
-        } else {
-            if (p1.y > p2.y) {
-                awayFrom.add(new Point(p1.x, p1.y + 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x + 1, p1.y + 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y));
-                awayFrom.add(new Point(p1.x + 1, p1.y));
-
-                towards.add(new Point(p1.x, p1.y - 1));
-                towards.add(new Point(p1.x - 1, p1.y - 1));
-                towards.add(new Point(p1.x + 1, p1.y - 1));
-                towards.add(new Point(p1.x - 1, p1.y));
-                towards.add(new Point(p1.x + 1, p1.y));
-            } else if (p1.y < p2.y) {
-                awayFrom.add(new Point(p1.x, p1.y - 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x + 1, p1.y - 1));
-                awayFrom.add(new Point(p1.x - 1, p1.y));
-                awayFrom.add(new Point(p1.x + 1, p1.y));
-
-                towards.add(new Point(p1.x, p1.y + 1));
-                towards.add(new Point(p1.x - 1, p1.y + 1));
-                towards.add(new Point(p1.x + 1, p1.y + 1));
-                towards.add(new Point(p1.x - 1, p1.y));
-                towards.add(new Point(p1.x + 1, p1.y));
-            } else {
-                /* This should happen the FIRST time an object is born and want to move
-                 * Or this could happen if an object has been trapped and can now move again
-                 * If there are no previous direction, this turn should be random and the next
-                 * move will be the same direction */ 
+                STEPS[(dx + 1) + (dy + 1) * 3] = steps;
             }
         }
-
-        /* Return appropriate list based on the boolean user input 'away' */
-        return away ? awayFrom : towards;
     }
 }
@@ -0,0 +1,17 @@
+package pasture;
+
+/**
+ * An animal of any species. Everything an animal does is decided by
+ * the settings of its species, so new animals can be added to
+ * pasture.properties without any code.
+ */
+public class Animal extends Alive {
+
+    public Animal(Pasture pasture, int species) {
+        super(pasture, species);
+    }
+
+    protected Entity clone() {
+        return new Animal(this.pasture, getSpecies());
+    }
+}
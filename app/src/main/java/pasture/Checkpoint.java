@@ -0,0 +1,111 @@
+package pasture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+
+/**
+ * Saves the whole state of a pasture to a file and reads it back, so
+ * that a long simulation can be stopped and picked up again from the
+ * same tick. The file is mapped into memory and the arrays of the
+ * pasture are copied in and out of it in bulk.
+ *
+ * A checkpoint starts with a header: "PAST", the version of the
+ * format, the settings of the pasture as a UTF-8 properties file and
+ * the seed. Then follows the state of the pasture, see Pasture.writeState().
+ * All numbers are little endian.
+ */
+class Checkpoint {
+    private static final int MAGIC   = 0x54534150; /* "PAST" when little endian */
+    private static final int VERSION = 4;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes a checkpoint of the pasture. The pasture must not be ticked
+     * meanwhile.
+     */
+    public static void save(Pasture pasture, File file) throws IOException {
+        byte[] settings = storeSettings(pasture.getProperties());
+        long length = 4 + 4 + 4 + settings.length + 8 + pasture.getStateBytes();
+
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("The pasture is too big for a checkpoint");
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+             FileChannel channel = out.getChannel()) {
+            out.setLength(length);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(settings.length);
+            buffer.put(settings);
+            buffer.putLong(pasture.getSeed());
+            pasture.writeState(buffer);
+
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads a checkpoint into a new pasture without a GUI, with the
+     * settings in the checkpoint as its own.
+     */
+    public static Pasture load(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileChannel channel = in.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC)
+                throw new IllegalStateException(file + " is not a checkpoint");
+            if (buffer.getInt() != VERSION)
+                throw new IllegalStateException(file + " is a checkpoint of another version");
+
+            byte[] settings = new byte[buffer.getInt()];
+            buffer.get(settings);
+
+            Pasture pasture = Pasture.restore(loadSettings(settings), buffer.getLong());
+            pasture.readState(buffer);
+            return pasture;
+        }
+    }
+
+    private static byte[] storeSettings(PastureProperties properties) throws IOException {
+        Properties settings = new Properties();
+
+        for (String key : properties.getKeys()) {
+            settings.setProperty(key, properties.getValue(key));
+        }
+
+        /* Leave out the date store() puts first, so that the same pasture
+         * always gives the same checkpoint */
+        StringWriter out = new StringWriter();
+        settings.store(out, null);
+        String stored = out.toString();
+        return stored.substring(stored.indexOf('\n') + 1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* The defaults with the saved settings on top */
+    private static PastureProperties loadSettings(byte[] bytes) throws IOException {
+        Properties settings = new Properties();
+        settings.load(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+
+        PastureProperties properties = new PastureProperties();
+        for (String key : settings.stringPropertyNames()) {
+            properties.setValue(key, settings.getProperty(key));
+        }
+        return properties;
+    }
+}
@@ -1,71 +1,220 @@
+package pasture;
+
 import java.util.*;
-import javax.swing.Timer;
+import java.util.concurrent.locks.ReentrantLock;
 import java.awt.event.*;
 
 /**
- * The simulation is run by an internal timer that sends out a 'tick'
- * with a given interval. One tick from the timer means that each
- * entity in the pasture should obtain a tick. When an entity obtains
+ * The simulation is run by a thread of the engine that sends out a 'tick'
+ * with a given interval, or as fast as possible by run() when there is
+ * no GUI. One tick from the engine means that each
+ * entity in the pasture with something due should obtain a tick. When an entity obtains
  * a tick, this entity is allowed to carry out their tasks according
  * to what kind they are. This could mean moving the entity, making
  * the entity starve from hunger, or producing a new offspring.
+ *
+ * The engine can also fast forward, ticking back to back. Ticks are
+ * done while holding the lock of the engine, so others can look at the
+ * pasture between two ticks by taking the lock. A GUI shouldn't have
+ * to, it can display the snapshots the engine publishes instead, see
+ * getSnapshot().
  */
 
 public class Engine implements ActionListener {
 
-    private final int   SPEED_REFERENCE = 1000; /* 1000 */
-    private final int   speed           = 10;
-    private final Timer timer           = new Timer(SPEED_REFERENCE/speed,this);
-    private int         time            = 0;
+    private final int           SPEED_REFERENCE = 1000; /* 1000 */
+    private final int           speed           = 10;
+    private volatile int        delay           = SPEED_REFERENCE/speed;
+
+    /* Fair, so that whoever waits to look at the pasture gets to do it
+     * between two ticks of a fast forward */
+    private final ReentrantLock lock    = new ReentrantLock(true);
+    private Thread              runner;
+    private volatile boolean    running = false;
+
+    /* The latest snapshot, and if a new one should be taken after the
+     * next tick */
+    private volatile PastureSnapshot    snapshot;
+    private volatile boolean            snapshotWanted = false;
 
-    private Pasture pasture;
+    protected final Pasture pasture;
 
 
     public Engine (Pasture pasture) {
         this.pasture = pasture;
     }
 
+    /** Ticks once */
     public void actionPerformed(ActionEvent event) {
+        tick();
+    }
+
+    /**
+     * Advances the simulation one tick.
+     */
+    public void tick() {
+        lock.lock();
+        try {
+            step();
+            pasture.finishTick();
+
+            if (snapshotWanted) {
+                snapshotWanted = false;
+                snapshot = pasture.snapshot();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        /* Since every tick can remove an object from the pasture, this loop
-         * must make sure that things that can be removed never gets a call to tick()
-         * when it's cone.
-         * I.e. a wolf can eat a sheep so we need to tick() all sheeps before
-         * wolfs and thus making sure an eaten sheep won't get a tick().
-         * 
+    /**
+     * Gives every entity that has something due in the next tick its
+     * tick, one at a time.
+     */
+    protected void step() {
+
+        /* Only the entities that move, starve or have a baby in this tick are
+         * ticked, the pasture keeps track of which ones that is. Entities removed
+         * during the tick are skipped, so an eaten sheep never gets its tick.
+         * Entities born during the tick have nothing due until a later one.
+         *
+         * The species are ticked in the order of their ids, plants before
+         * sheep before wolfs (see pasture.species), so that food is where
+         * it was when the hungry ones move.
+         *
          * NOTE: If a sheep and wolf has the same speed, the sheep will run away until
          * it get's traped because it can move to the next square before the wolf
          * eats it. Hanv't really seen any problem with this though (not even with the same speed)
          */
 
-        List<Entity> queue = pasture.getEntities();
-        for (String type : new String[]{"plant", "sheep", "wolf", "fence"}) {
-            for (Entity e : queue) {
-                if (!e.getType().equals(type))
-                    continue;
-
+        int n = pasture.advance();
+        for (int i = 0; i < n; i++) {
+            Entity e = pasture.getDue(i);
+            if (e.getHandle() >= 0) {
                 e.tick();
+                pasture.reschedule(e);
             }
         }
-        pasture.refresh();
-        time++;
     }
 
+    /**
+     * Runs the given number of ticks back to back on the calling thread
+     * and returns the populations when done together with the number
+     * of ticks per second that was achieved.
+     */
+    public SimulationResult run(int ticks) {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ticks; i++) {
+            tick();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        return new SimulationResult(pasture.getSeed(), ticks, elapsed, pasture.getPopulation());
+    }
+
+    /** Sets the number of ticks per second when started by start() */
     public void setSpeed(int speed) {
-        timer.setDelay(SPEED_REFERENCE/speed);
+        delay = SPEED_REFERENCE/speed;
     }
 
+    /**
+     * Starts ticking at the speed given by setSpeed() on a thread of
+     * the engine, until stop() is called.
+     */
     public void start() {
-        setSpeed(speed);
-        timer.start();
+        startRunner(-1, true);
+    }
+
+    /**
+     * Runs ticks back to back, as fast as possible, on a thread of the
+     * engine until stop() is called or the given number of ticks have
+     * been run. With a negative number of ticks it runs until stopped.
+     */
+    public void fastForward(int ticks) {
+        startRunner(ticks, false);
     }
 
+    private void startRunner(final int ticks, final boolean paced) {
+        stop();
+
+        running = true;
+        runner = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; running && (ticks < 0 || i < ticks); i++) {
+                        tick();
+
+                        if (paced)
+                            Thread.sleep(delay);
+                    }
+                } catch (InterruptedException e) {
+                    /* Stopped while waiting for the next tick */
+                } finally {
+                    running = false;
+                }
+            }
+        }, "pasture-engine");
+        runner.setDaemon(true);
+        runner.start();
+    }
+
+    /**
+     * Stops the engine, waiting for the tick in progress to finish.
+     */
     public void stop() {
-        timer.stop();
+        running = false;
+        if (runner != null) {
+            runner.interrupt();
+            try {
+                runner.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            runner = null;
+        }
+    }
+
+    /** If the thread of the engine is ticking */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the latest snapshot of the pasture and asks for a new one
+     * to be taken after the next tick, so that calling this at a frame
+     * rate gives a new snapshot for each frame without slowing down the
+     * ticks in between. When the engine isn't running the snapshot is
+     * up to date.
+     */
+    public PastureSnapshot getSnapshot() {
+        if (!running && (snapshot == null || snapshot.getTick() != pasture.getTick())) {
+            lock.lock();
+            try {
+                snapshot = pasture.snapshot();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        snapshotWanted = true;
+        return snapshot;
+    }
+
+    /**
+     * The lock held during each tick. Whoever holds it can look at the
+     * pasture without it changing.
+     */
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    public Pasture getPasture() {
+        return pasture;
     }
 
     public int getTime () {
-        return time;
+        return pasture.getTick();
     }
 
 }
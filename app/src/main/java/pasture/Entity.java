@@ -1,3 +1,5 @@
+package pasture;
+
 import javax.swing.*;
 
 /**
@@ -7,8 +9,26 @@ import javax.swing.*;
  */
 public interface Entity {
 
+    /**
+     * Does what the entity does during one tick. Entities are only
+     * ticked in the ticks they have something due in, see EntityStore.
+     */
     public void tick();
 
+    /**
+     * A tick can also be done in two phases, which is how the parallel
+     * engine does it. In plan() the entity decides what to do but must
+     * not change anything in the pasture, since all entities plan at
+     * the same time. Randomness must come from the given generator.
+     */
+    public void plan(PastureRandom random);
+
+    /**
+     * The second phase of a tick, carrying out what was planned if it's
+     * still possible. Entities commit one at a time.
+     */
+    public void commit();
+
     /** 
      * ImageIcon returns the icon of this entity, to be displayed by
      * the pasture gui.
@@ -17,6 +37,19 @@ public interface Entity {
 
     public boolean isCompatible(Entity otherEntity);
 
+    /** The name of the species of the entity */
     public String getType();
 
+    /** The id of the species of the entity in the config of the pasture */
+    public int getSpecies();
+
+    /**
+     * The handle is set by the pasture when the entity is added and is
+     * used to look up where the entity is without hashing. It's -1 when
+     * the entity isn't in a pasture.
+     */
+    public int getHandle();
+
+    public void setHandle(int handle);
+
 }
@@ -0,0 +1,52 @@
+package pasture;
+
+import java.util.Arrays;
+
+/**
+ * All entities of one type. Entities added are put last, and removing
+ * an entity moves the last one into its place, so that removing takes
+ * the same time however long the list is and the list never has holes.
+ * The order is thus the order the entities were added in, except that
+ * the last entity takes the place of each one removed.
+ */
+class EntityList {
+    private Entity[]    items    = new Entity[16];
+    private int         size     = 0;
+
+    /* Where in items each entity is, by handle */
+    private int[]       position = new int[64];
+
+    /** Number of entities in the list */
+    public int size() { return size; }
+
+    /** The entity at index i, which is less than size() */
+    public Entity get(int i) {
+        return items[i];
+    }
+
+    public void add(Entity e) {
+        int handle = e.getHandle();
+
+        if (size == items.length)
+            items = Arrays.copyOf(items, size * 2);
+
+        if (handle >= position.length)
+            position = Arrays.copyOf(position, Math.max(handle + 1, position.length * 2));
+
+        items[size] = e;
+        position[handle] = size++;
+    }
+
+    /**
+     * Removes an entity by moving the last entity of the list to where
+     * it was. Must not be called while the list is being walked.
+     */
+    public void remove(Entity e) {
+        int i = position[e.getHandle()];
+        Entity last = items[--size];
+
+        items[i] = last;
+        position[last.getHandle()] = i;
+        items[size] = null;
+    }
+}
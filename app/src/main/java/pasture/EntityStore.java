@@ -0,0 +1,226 @@
+package pasture;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The state of all entities in a pasture, kept in primitive arrays
+ * indexed by the handle of the entity instead of in the entities
+ * themselves. The entity objects only need to know their handle.
+ *
+ * Instead of counters that are counted down each tick the store keeps
+ * the tick each thing an entity does is due in. Which of them an
+ * entity uses depends on its kind: animals starve, move and have
+ * babies and plants only have babies. The ones that aren't used are
+ * NEVER due. Fences aren't entities, see Pasture.addObstacle().
+ *
+ * Handles of removed entities are reused by entities added later.
+ */
+class EntityStore {
+    /** The tick of something that never happens */
+    public static final int NEVER = Integer.MAX_VALUE;
+
+    private int         capacity    = 64;
+    private int         handles     = 0;
+    private int[]       freeHandles = new int[64];
+    private int         freeCount   = 0;
+
+    private Entity[]    entities        = new Entity[capacity];
+    private byte[]      species         = new byte[capacity];
+    private int[]       cell            = new int[capacity];
+    private int[]       lastCell        = new int[capacity];
+    private int[]       liveDue         = new int[capacity];
+    private int[]       moveDue         = new int[capacity];
+    private int[]       duplicateDue    = new int[capacity];
+    private int[]       plannedBirth    = new int[capacity];
+    private int[]       plannedMove     = new int[capacity];
+
+    /**
+     * Returns a handle for a new entity of a species in a cell. What the
+     * entity does is due when the limits of the species have passed
+     * from the given tick.
+     */
+    public int allocate(Entity entity, SpeciesConfig config, int at, int tick) {
+        int handle;
+        if (freeCount > 0) {
+            handle = freeHandles[--freeCount];
+        } else {
+            if (handles == capacity)
+                grow();
+            handle = handles++;
+        }
+
+        String kind = config.getKind();
+        boolean animal = kind.equals(SpeciesConfig.ANIMAL);
+
+        entities[handle] = entity;
+        species[handle] = (byte) config.getId();
+        cell[handle] = at;
+        lastCell[handle] = -1; /* No last position when an entity is born */
+        liveDue[handle] = animal ? due(tick, config.getNoFoodLimit()) : NEVER;
+        moveDue[handle] = animal ? due(tick, config.getMoveDelay()) : NEVER;
+        duplicateDue[handle] = animal || kind.equals(SpeciesConfig.PLANT)
+            ? due(tick, config.getDuplicateLimit()) : NEVER;
+        plannedBirth[handle] = -1;
+        plannedMove[handle] = -1;
+
+        return handle;
+    }
+
+    public void release(int handle) {
+        entities[handle] = null;
+        species[handle] = -1;
+
+        if (freeCount == freeHandles.length)
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Makes room for at least the given number of handles at once, for
+     * when many entities are about to be added.
+     */
+    public void ensureCapacity(int count) {
+        if (count > capacity)
+            grow(count);
+    }
+
+    private void grow() {
+        grow(capacity * 2);
+    }
+
+    private void grow(int to) {
+        capacity = to;
+        entities = Arrays.copyOf(entities, capacity);
+        species = Arrays.copyOf(species, capacity);
+        cell = Arrays.copyOf(cell, capacity);
+        lastCell = Arrays.copyOf(lastCell, capacity);
+        liveDue = Arrays.copyOf(liveDue, capacity);
+        moveDue = Arrays.copyOf(moveDue, capacity);
+        duplicateDue = Arrays.copyOf(duplicateDue, capacity);
+        plannedBirth = Arrays.copyOf(plannedBirth, capacity);
+        plannedMove = Arrays.copyOf(plannedMove, capacity);
+    }
+
+    /**
+     * The tick something is due in if it should happen after the given
+     * delay from a tick. Nothing happens in the same tick, a delay of 0
+     * means the next tick.
+     */
+    public static int due(int tick, int delay) {
+        return tick + Math.max(delay, 1);
+    }
+
+    /** The first tick something is due in for the entity, or NEVER */
+    public int getNextDue(int handle) {
+        return Math.min(liveDue[handle], Math.min(moveDue[handle], duplicateDue[handle]));
+    }
+
+    /**
+     * Number of bytes write() needs.
+     */
+    public long getStateBytes() {
+        return 8 + 4L * freeCount + handles * (1 + 5 * 4L);
+    }
+
+    /**
+     * Writes the state of every handle to the buffer: the number of
+     * handles, the free handles and then the arrays of the store one
+     * after the other. The species of a free handle is -1.
+     */
+    public void write(ByteBuffer out) {
+        out.putInt(handles);
+        out.putInt(freeCount);
+        putInts(out, freeHandles, freeCount);
+
+        out.put(species, 0, handles);
+        putInts(out, cell, handles);
+        putInts(out, lastCell, handles);
+        putInts(out, liveDue, handles);
+        putInts(out, moveDue, handles);
+        putInts(out, duplicateDue, handles);
+    }
+
+    /**
+     * Reads what write() wrote, replacing everything in the store. The
+     * entities of the handles are not known, they have to be set with
+     * setEntity().
+     */
+    public void read(ByteBuffer in) {
+        handles = in.getInt();
+        freeCount = in.getInt();
+        freeHandles = getInts(in, freeCount, Math.max(freeCount, 64));
+
+        capacity = Math.max(handles, 64);
+        entities = new Entity[capacity];
+        species = new byte[capacity];
+        in.get(species, 0, handles);
+        cell = getInts(in, handles, capacity);
+        lastCell = getInts(in, handles, capacity);
+        liveDue = getInts(in, handles, capacity);
+        moveDue = getInts(in, handles, capacity);
+        duplicateDue = getInts(in, handles, capacity);
+
+        plannedBirth = new int[capacity];
+        plannedMove = new int[capacity];
+        Arrays.fill(plannedBirth, -1);
+        Arrays.fill(plannedMove, -1);
+    }
+
+    private static void putInts(ByteBuffer out, int[] values, int n) {
+        out.asIntBuffer().put(values, 0, n);
+        out.position(out.position() + 4 * n);
+    }
+
+    private static int[] getInts(ByteBuffer in, int n, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values, 0, n);
+        in.position(in.position() + 4 * n);
+        return values;
+    }
+
+    /** Number of handles given out so far, live or free */
+    public int getHandles() { return handles; }
+
+    /** If the handle belongs to an entity in the pasture */
+    public boolean isLive(int handle) { return species[handle] >= 0; }
+
+    public Entity getEntity(int handle) { return entities[handle]; }
+
+    public void setEntity(int handle, Entity entity) { entities[handle] = entity; }
+
+    public int getSpecies(int handle) { return species[handle]; }
+
+    public int getCell(int handle) { return cell[handle]; }
+
+    public void setCell(int handle, int at) { cell[handle] = at; }
+
+    public int getLastCell(int handle) { return lastCell[handle]; }
+
+    public void setLastCell(int handle, int at) { lastCell[handle] = at; }
+
+    /** The tick the entity starves in */
+    public int getLiveDue(int handle) { return liveDue[handle]; }
+
+    public void setLiveDue(int handle, int tick) { liveDue[handle] = tick; }
+
+    /** The tick the entity moves in */
+    public int getMoveDue(int handle) { return moveDue[handle]; }
+
+    public void setMoveDue(int handle, int tick) { moveDue[handle] = tick; }
+
+    /** The tick the entity tries to have a baby in */
+    public int getDuplicateDue(int handle) { return duplicateDue[handle]; }
+
+    public void setDuplicateDue(int handle, int tick) { duplicateDue[handle] = tick; }
+
+    /** The cell an entity plans to put a baby in, -1 if none */
+    public int getPlannedBirth(int handle) { return plannedBirth[handle]; }
+
+    public void setPlannedBirth(int handle, int at) { plannedBirth[handle] = at; }
+
+    /** The cell an entity plans to move to, -1 if none */
+    public int getPlannedMove(int handle) { return plannedMove[handle]; }
+
+    public void setPlannedMove(int handle, int at) { plannedMove[handle] = at; }
+}
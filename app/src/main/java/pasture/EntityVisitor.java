@@ -0,0 +1,13 @@
+package pasture;
+
+/**
+ * A visitor gets called for each entity found when scanning an area of
+ * the pasture. Scanning with a visitor instead of asking for a list
+ * means that nothing has to be allocated for the result.
+ */
+public interface EntityVisitor {
+
+    /** Called for each entity found together with the cell it's in */
+    public void visit(Entity e, int cell);
+
+}
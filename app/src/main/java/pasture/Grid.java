@@ -0,0 +1,370 @@
+package pasture;
+
+import java.util.Arrays;
+
+/**
+ * The occupancy of the pasture, stored in chunks of 32 x 32 cells that
+ * are only allocated while something is in them. Each cell has room for
+ * a few entities, since no more than a plant, a sheep and a wolf can
+ * ever share a square.
+ *
+ * Cells are numbered chunk by chunk, and row by row within a chunk, so
+ * that the chunk of a cell and the cell within the chunk are had from
+ * its bits. The chunks of a row of chunks are padded to a power of two,
+ * so not every number up to size() is a cell of the pasture. Use x(),
+ * y() and index() to go between cells and squares.
+ *
+ * A grid can wrap around at the edges, making it a torus. Then every
+ * x and y is contained in it and index() wraps them.
+ *
+ * Besides the entities a cell can hold an obstacle, such as a piece
+ * of fence. Obstacles are just the species of the obstacle in a byte
+ * per cell, and a chunk with an obstacle in it is kept like one with
+ * entities.
+ *
+ * The grid also keeps a bit per cell and species for which cells each
+ * species is blocked from, see Pasture.freeSpace(). The pasture keeps
+ * the bits up to date, the grid only stores them.
+ */
+class Grid {
+    /** Max number of entities that can share a cell */
+    public static final int CAPACITY = 4;
+
+    /** Width and height of a chunk in cells, and the cells in a chunk */
+    public static final int CHUNK_BITS  = 5;
+    public static final int CHUNK_SIZE  = 1 << CHUNK_BITS;
+    public static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CELL_BITS  = 2 * CHUNK_BITS;
+    private static final int CELL_MASK  = CHUNK_CELLS - 1;
+
+    /* Most empty chunks kept for reuse */
+    private static final int SPARE_CHUNKS = 64;
+
+    private final int       width;
+    private final int       height;
+    private final boolean   wraps;
+    private final int       species;
+
+    /* The chunks row by row, with 1 << columnBits chunks per row */
+    private final int       columnBits;
+    private final Chunk[]   chunks;
+    private int             allocated = 0;
+
+    /* Chunks let go of, kept for reuse since entities walking back and
+     * forth over the edge of a chunk would otherwise allocate it each
+     * time they enter it */
+    private final Chunk[]   spare = new Chunk[SPARE_CHUNKS];
+    private int             spareCount = 0;
+
+    private static final class Chunk {
+        final Entity[]  slots   = new Entity[CHUNK_CELLS * CAPACITY];
+        final byte[]    counts  = new byte[CHUNK_CELLS];
+        /* The species id + 1 of the obstacle in each cell, 0 for none */
+        final byte[]    obstacles = new byte[CHUNK_CELLS];
+        /* One word per row of the chunk and species */
+        final long[]    blocked;
+        /* Entities and obstacles in the chunk */
+        int             occupants;
+
+        Chunk(int species) {
+            blocked = new long[species * CHUNK_SIZE];
+        }
+    }
+
+    /**
+     * Creates an empty grid of the given size, keeping blocked bits for
+     * the given number of species.
+     */
+    public Grid(int width, int height, boolean wraps, int species) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("A pasture of " + width + " x " + height + " has no squares");
+
+        int columns = (width + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        int rows = (height + CHUNK_SIZE - 1) >> CHUNK_BITS;
+        int columnBits = 32 - Integer.numberOfLeadingZeros(columns - 1);
+
+        if ((long) rows << columnBits > Integer.MAX_VALUE >> CELL_BITS)
+            throw new IllegalArgumentException("A pasture of " + width + " x " + height + " is too big");
+
+        this.width = width;
+        this.height = height;
+        this.wraps = wraps;
+        this.species = species;
+        this.columnBits = columnBits;
+        chunks = new Chunk[rows << columnBits];
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /** If the grid wraps around at the edges */
+    public boolean wraps() { return wraps; }
+
+    /** Every cell is less than this, but not every number less is a cell */
+    public int size() { return chunks.length << CELL_BITS; }
+
+    /** Number of chunks, allocated or not */
+    public int chunks() { return chunks.length; }
+
+    /** The chunk a cell is in */
+    public static int chunk(int cell) { return cell >>> CELL_BITS; }
+
+    /** Which cell of its chunk a cell is, row by row */
+    public static int local(int cell) { return cell & CELL_MASK; }
+
+    /** Number of chunks with something in them */
+    public int getAllocatedChunks() { return allocated; }
+
+    /** If the chunk has anything in it */
+    public boolean isAllocated(int chunk) { return chunks[chunk] != null; }
+
+    /** The first cell of a chunk */
+    public int firstCell(int chunk) { return chunk << CELL_BITS; }
+
+    /** If a number is a cell of a square of the grid, see size() */
+    public boolean isCell(int cell) {
+        return cell >= 0 && cell < size() && x(cell) < width && y(cell) < height;
+    }
+
+    public boolean contains(int x, int y) {
+        return wraps || (x >= 0 && y >= 0 && x < width && y < height);
+    }
+
+    /** The cell of a square, which must be contained in the grid */
+    public int index(int x, int y) {
+        if (wraps) {
+            if (x < 0 || x >= width)
+                x = Math.floorMod(x, width);
+            if (y < 0 || y >= height)
+                y = Math.floorMod(y, height);
+        }
+
+        int chunk = (y >> CHUNK_BITS) << columnBits | x >> CHUNK_BITS;
+        return chunk << CELL_BITS | (y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK);
+    }
+
+    public int x(int cell) {
+        int column = (cell >>> CELL_BITS) & ((1 << columnBits) - 1);
+        return column << CHUNK_BITS | (cell & CHUNK_MASK);
+    }
+
+    public int y(int cell) {
+        int row = cell >>> CELL_BITS >>> columnBits;
+        return row << CHUNK_BITS | ((cell >>> CHUNK_BITS) & CHUNK_MASK);
+    }
+
+    /**
+     * The steps along x from one cell to another. On a torus it's the
+     * shortest way, which may be around the edge.
+     */
+    public int dx(int from, int to) {
+        return shortestX(x(to) - x(from));
+    }
+
+    /** Like dx() along y */
+    public int dy(int from, int to) {
+        return shortestY(y(to) - y(from));
+    }
+
+    /** The shortest way to go d steps along x, which may be around the edge */
+    public int shortestX(int d) {
+        return shortest(d, width);
+    }
+
+    public int shortestY(int d) {
+        return shortest(d, height);
+    }
+
+    private int shortest(int d, int size) {
+        if (wraps) {
+            if (d > size / 2)
+                d -= size;
+            else if (d < -(size - 1) / 2)
+                d += size;
+        }
+        return d;
+    }
+
+    /** Number of entities in the cell */
+    public int count(int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        return chunk == null ? 0 : chunk.counts[cell & CELL_MASK];
+    }
+
+    /** The i:th entity in the cell, where i is less than count(cell) */
+    public Entity get(int cell, int i) {
+        return chunks[cell >>> CELL_BITS].slots[(cell & CELL_MASK) * CAPACITY + i];
+    }
+
+    /** Adds an entity to a cell, allocating its chunk if it's empty */
+    public void add(int cell, Entity e) {
+        int local = cell & CELL_MASK;
+        int n = count(cell);
+        if (n == CAPACITY)
+            throw new IllegalStateException("Too many entities in cell " + cell);
+
+        Chunk chunk = allocate(cell);
+        chunk.slots[local * CAPACITY + n] = e;
+        chunk.counts[local] = (byte) (n + 1);
+        chunk.occupants++;
+    }
+
+    private Chunk allocate(int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null) {
+            if (spareCount > 0) {
+                chunk = spare[--spareCount];
+                spare[spareCount] = null;
+            } else {
+                chunk = new Chunk(species);
+            }
+            chunks[cell >>> CELL_BITS] = chunk;
+            allocated++;
+        }
+        return chunk;
+    }
+
+    /* Lets go of the chunk of the cell if the last occupant has left it */
+    private void release(int cell, Chunk chunk) {
+        if (--chunk.occupants > 0)
+            return;
+
+        chunks[cell >>> CELL_BITS] = null;
+        allocated--;
+
+        /* Only the bits of the cell just emptied can be left */
+        if (spareCount < SPARE_CHUNKS) {
+            Arrays.fill(chunk.blocked, 0);
+            spare[spareCount++] = chunk;
+        }
+    }
+
+    /**
+     * Removes the entity from the cell by moving the last entity in the
+     * cell to its slot. Returns false if the entity wasn't there. The
+     * chunk is let go of when the last entity or obstacle in it is
+     * removed.
+     */
+    public boolean remove(int cell, Entity e) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null)
+            return false;
+
+        int local = cell & CELL_MASK;
+        int base = local * CAPACITY;
+        int last = chunk.counts[local] - 1;
+
+        for (int i = 0; i <= last; i++) {
+            if (chunk.slots[base + i] == e) {
+                chunk.slots[base + i] = chunk.slots[base + last];
+                chunk.slots[base + last] = null;
+                chunk.counts[local] = (byte) last;
+
+                release(cell, chunk);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** The species of the obstacle in the cell, or -1 if there is none */
+    public int getObstacle(int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        return chunk == null ? -1 : chunk.obstacles[cell & CELL_MASK] - 1;
+    }
+
+    /**
+     * Puts an obstacle of a species in the cell, replacing the one that
+     * was there, or takes it away if the species is -1.
+     */
+    public void setObstacle(int cell, int species) {
+        int before = getObstacle(cell);
+        if (species == before)
+            return;
+
+        Chunk chunk = allocate(cell);
+        chunk.obstacles[cell & CELL_MASK] = (byte) (species + 1);
+
+        if (before < 0) {
+            chunk.occupants++;
+        } else if (species < 0) {
+            release(cell, chunk);
+        }
+    }
+
+    /** If the species is blocked from the cell. Empty cells never are. */
+    public boolean isBlocked(int species, int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null)
+            return false;
+
+        long row = chunk.blocked[species * CHUNK_SIZE + ((cell >>> CHUNK_BITS) & CHUNK_MASK)];
+        return (row & 1L << (cell & CHUNK_MASK)) != 0;
+    }
+
+    /**
+     * Sets if the species is blocked from the cell. Only cells with
+     * something in them can be blocked.
+     */
+    public void setBlocked(int species, int cell, boolean blocked) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null) {
+            if (blocked)
+                throw new IllegalStateException("An empty cell can't be blocked");
+            return;
+        }
+
+        int row = species * CHUNK_SIZE + ((cell >>> CHUNK_BITS) & CHUNK_MASK);
+        if (blocked) {
+            chunk.blocked[row] |= 1L << (cell & CHUNK_MASK);
+        } else {
+            chunk.blocked[row] &= ~(1L << (cell & CHUNK_MASK));
+        }
+    }
+
+    /**
+     * The blocked bits of the species for the row of the chunk the cell
+     * is in, bit x % CHUNK_SIZE for each x of the row.
+     */
+    public long getBlockedRow(int species, int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null)
+            return 0;
+
+        return chunk.blocked[species * CHUNK_SIZE + ((cell >>> CHUNK_BITS) & CHUNK_MASK)];
+    }
+
+    /**
+     * If the cell and the eight around it are all in the chunk of the
+     * cell, without going around the edge of the grid.
+     */
+    public boolean isInner(int cell) {
+        int column = cell & CHUNK_MASK;
+        int row = (cell >>> CHUNK_BITS) & CHUNK_MASK;
+
+        return column > 0 && column < CHUNK_MASK && row > 0 && row < CHUNK_MASK
+                && x(cell) + 1 < width && y(cell) + 1 < height;
+    }
+
+    /**
+     * The blocked bits of the species for an inner cell and the eight
+     * around it, bit dx + 1 + 3 * (dy + 1) for the cell dx, dy away.
+     */
+    public int getBlockedAround(int species, int cell) {
+        Chunk chunk = chunks[cell >>> CELL_BITS];
+        if (chunk == null)
+            return 0;
+
+        int shift = (cell & CHUNK_MASK) - 1;
+        int row = species * CHUNK_SIZE + ((cell >>> CHUNK_BITS) & CHUNK_MASK);
+        long[] blocked = chunk.blocked;
+
+        return (int) (blocked[row - 1] >>> shift & 7)
+                | (int) (blocked[row] >>> shift & 7) << 3
+                | (int) (blocked[row + 1] >>> shift & 7) << 6;
+    }
+}
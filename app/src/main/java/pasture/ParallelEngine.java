@@ -0,0 +1,107 @@
+package pasture;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An engine that uses all cores by ticking the entities in two phases.
+ *
+ * The entities due in a tick are cut into chunks. In the first phase
+ * the chunks are handed to a ForkJoinPool and every due entity plans
+ * what to do from how the pasture looked when the tick started. In the
+ * second phase the plans are committed one at a time, in the same order
+ * as the sequential engine ticks the entities. A plan that isn't
+ * possible anymore (someone else took the cell first) is simply not
+ * carried out.
+ *
+ * Each chunk gets its own random generator, split in chunk order from
+ * a generator split from the one of the pasture each tick. Since the
+ * chunks don't depend on the number of threads, a run is the same for
+ * a given seed of the pasture no matter how many threads are used. And
+ * since the engine keeps no random state of its own, a pasture resumed
+ * from a checkpoint goes on like it would have.
+ */
+public class ParallelEngine extends Engine {
+    /** Number of due entities planned in one task */
+    public static final int CHUNK_SIZE = 256;
+
+    private final ForkJoinPool      pool;
+
+    private PastureRandom[]         chunkRandom = new PastureRandom[16];
+
+    /**
+     * Creates an engine ticking the pasture on the given number of
+     * threads. The random numbers are split from the generator of the
+     * pasture, so the seed of the pasture decides the run.
+     */
+    public ParallelEngine(Pasture pasture, int threads) {
+        super(pasture);
+
+        pool = new ForkJoinPool(threads);
+    }
+
+    protected void step() {
+        int n = pasture.advance(pool);
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        if (chunks > chunkRandom.length)
+            chunkRandom = new PastureRandom[Math.max(chunks, chunkRandom.length * 2)];
+
+        PastureRandom tickRandom = pasture.getRandom().split();
+        for (int c = 0; c < chunks; c++) {
+            chunkRandom[c] = tickRandom.split();
+        }
+
+        if (chunks > 0)
+            pool.invoke(new PlanChunks(0, chunks, n));
+
+        /* Eaten entities are no longer in the pasture and don't get to
+         * commit at all */
+        for (int i = 0; i < n; i++) {
+            Entity e = pasture.getDue(i);
+            if (e.getHandle() >= 0) {
+                e.commit();
+                pasture.reschedule(e);
+            }
+        }
+    }
+
+    /** Stops the threads of the engine. It can't be used after this. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /* Lets every due entity in a chunk plan */
+    private void plan(int chunk, int due) {
+        PastureRandom r = chunkRandom[chunk];
+        int to = Math.min((chunk + 1) * CHUNK_SIZE, due);
+
+        for (int i = chunk * CHUNK_SIZE; i < to; i++) {
+            pasture.getDue(i).plan(r);
+        }
+    }
+
+    /* Splits the chunks in halves until there is one chunk per task */
+    private class PlanChunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, due;
+
+        PlanChunks(int from, int to, int due) {
+            this.from = from;
+            this.to = to;
+            this.due = due;
+        }
+
+        protected void compute() {
+            if (to - from == 1) {
+                plan(from, due);
+                return;
+            }
+
+            int middle = (from + to) / 2;
+            invokeAll(new PlanChunks(from, middle, due), new PlanChunks(middle, to, due));
+        }
+    }
+}
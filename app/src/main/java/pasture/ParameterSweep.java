@@ -0,0 +1,221 @@
+package pasture;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a pasture without a GUI for every combination of a grid of
+ * settings, a number of times each, and sums up how the populations
+ * ended for each combination.
+ *
+ * Every run gets a pasture of its own with its own copy of the
+ * settings, so the runs share nothing and are spread over a fixed
+ * number of threads. Replicate r of every combination is seeded with
+ * the seed of the sweep + r, so that combinations are compared on the
+ * same random numbers and a sweep can be run again with the same
+ * outcome.
+ */
+public class ParameterSweep {
+    private final PastureProperties         base;
+    private final Map<String, String[]>     parameters = new LinkedHashMap<String, String[]>();
+
+    private int     ticks       = 1000;
+    private int     replicates  = 1;
+    private int     threads     = Runtime.getRuntime().availableProcessors();
+    private long    seed        = 0;
+
+    /**
+     * Creates a sweep where everything that isn't varied is taken from
+     * the given settings. They are copied for each run and never
+     * changed.
+     */
+    public ParameterSweep(PastureProperties base) {
+        this.base = base;
+    }
+
+    /**
+     * Adds a setting, such as sheep.vision_length, and the values to try
+     * for it. Each value is tried together with every value of every
+     * other setting added.
+     */
+    public void vary(String key, String... values) {
+        if (values.length == 0)
+            throw new IllegalArgumentException("No values to try for " + key);
+
+        parameters.put(key, values.clone());
+    }
+
+    /** Number of ticks each pasture is run */
+    public void setTicks(int ticks) {
+        this.ticks = ticks;
+    }
+
+    /** Number of times each combination is run, with different seeds */
+    public void setReplicates(int replicates) {
+        if (replicates < 1)
+            throw new IllegalArgumentException("At least one replicate is needed");
+
+        this.replicates = replicates;
+    }
+
+    /** Number of pastures run at the same time */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed");
+
+        this.threads = threads;
+    }
+
+    /** The seed of the first replicate of each combination */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Runs all combinations and replicates and returns the results by
+     * combination, the last setting added varying fastest.
+     */
+    public List<SweepResult> run() throws InterruptedException {
+        List<Map<String, String>> combinations = getCombinations();
+        List<String> types = getTypes();
+
+        List<Callable<SimulationResult>> tasks = new ArrayList<Callable<SimulationResult>>();
+        for (Map<String, String> settings : combinations) {
+            for (int r = 0; r < replicates; r++) {
+                tasks.add(createRun(settings, seed + r));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<SimulationResult>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<SweepResult> results = new ArrayList<SweepResult>(combinations.size());
+        for (int c = 0; c < combinations.size(); c++) {
+            List<SimulationResult> runs = new ArrayList<SimulationResult>(replicates);
+
+            for (int r = 0; r < replicates; r++) {
+                try {
+                    runs.add(futures.get(c * replicates + r).get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Run " + (seed + r) + " of "
+                            + combinations.get(c) + " failed", e.getCause());
+                }
+            }
+
+            results.add(new SweepResult(combinations.get(c), types, runs));
+        }
+
+        return results;
+    }
+
+    private Callable<SimulationResult> createRun(final Map<String, String> settings, final long runSeed) {
+        return new Callable<SimulationResult>() {
+            public SimulationResult call() {
+                PastureProperties properties = new PastureProperties(base);
+                for (Map.Entry<String, String> setting : settings.entrySet()) {
+                    properties.setValue(setting.getKey(), setting.getValue());
+                }
+
+                Pasture pasture = new Pasture(properties, false, runSeed);
+                return pasture.getEngine().run(ticks);
+            }
+        };
+    }
+
+    /* Every combination of the values of the settings, like an odometer */
+    private List<Map<String, String>> getCombinations() {
+        List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+        combinations.add(new LinkedHashMap<String, String>());
+
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            List<Map<String, String>> next = new ArrayList<Map<String, String>>();
+
+            for (Map<String, String> combination : combinations) {
+                for (String value : parameter.getValue()) {
+                    Map<String, String> settings = new LinkedHashMap<String, String>(combination);
+                    settings.put(parameter.getKey(), value);
+                    next.add(settings);
+                }
+            }
+            combinations = next;
+        }
+
+        return combinations;
+    }
+
+    private List<String> getTypes() {
+        PastureConfig config = new PastureConfig(base);
+        List<String> types = new ArrayList<String>(config.size());
+
+        for (int s = 0; s < config.size(); s++) {
+            types.add(config.species(s).getType());
+        }
+        return types;
+    }
+
+    /**
+     * Runs a sweep from the command line and prints the results as CSV,
+     * one line per combination with the mean, smallest and largest
+     * population of each type, and in how many runs it died out.
+     *
+     * The arguments are the number of ticks and replicates followed by
+     * the settings to vary, each as key=value,value,... Add "--threads
+     * <n>" to limit the number of pastures run at the same time and
+     * "--seed <seed>" to change the seeds.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        ParameterSweep sweep = new ParameterSweep(new PastureProperties());
+        List<String> positional = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                sweep.setThreads(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--seed")) {
+                sweep.setSeed(Long.parseLong(args[++i]));
+            } else if (args[i].contains("=")) {
+                int eq = args[i].indexOf('=');
+                sweep.vary(args[i].substring(0, eq), args[i].substring(eq + 1).split(","));
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (positional.size() > 0)
+            sweep.setTicks(Integer.parseInt(positional.get(0)));
+        if (positional.size() > 1)
+            sweep.setReplicates(Integer.parseInt(positional.get(1)));
+
+        List<SweepResult> results = sweep.run();
+        List<String> types = sweep.getTypes();
+
+        StringBuilder header = new StringBuilder();
+        for (String key : sweep.parameters.keySet())
+            header.append(key).append(',');
+        header.append("runs");
+        for (String type : types) {
+            header.append(',').append(type).append("_mean,").append(type).append("_min,")
+                    .append(type).append("_max,").append(type).append("_extinct");
+        }
+        System.out.println(header);
+
+        for (SweepResult result : results) {
+            StringBuilder line = new StringBuilder();
+            for (String value : result.getSettings().values())
+                line.append(value).append(',');
+            line.append(result.getRuns().size());
+            for (String type : types) {
+                line.append(String.format(Locale.ROOT, ",%.2f,%d,%d,%d", result.getMeanPopulation(type),
+                        result.getMinPopulation(type), result.getMaxPopulation(type),
+                        result.getExtinctions(type)));
+            }
+            System.out.println(line);
+        }
+    }
+}
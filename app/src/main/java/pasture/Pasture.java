@@ -1,5 +1,12 @@
+package pasture;
+
 import java.util.*;
 import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import javax.swing.SwingUtilities;
 
 /**
  * A pasture contains sheep, wolves, fences, plants, and possibly
@@ -8,70 +15,388 @@ import java.awt.Point;
  * possible enimies. 
  */
 public class Pasture {
-    private final int width  = PastureProperties.getInstance().getIntValue("pasture.width");
-    private final int height = PastureProperties.getInstance().getIntValue("pasture.height");
+    /** Values of pasture.topology */
+    public static final String BOUNDED      = "bounded";
+    public static final String TORUS        = "torus";
+    public static final String UNBOUNDED    = "unbounded";
+
+    /** Width and height of an unbounded pasture, which wraps around there */
+    public static final int    UNBOUNDED_SIZE = 1 << 15;
+
+    /** Values of pasture.plants */
+    public static final String ENTITIES     = "entities";
+    public static final String FIELD        = "field";
+
+    /* Start areas bigger than this are populated by populateSparse() */
+    private static final int   SPARSE_AREA  = 1 << 22;
+
+    private final PastureProperties properties;
+    private final String            topology;
+    private final int               width;
+    private final int               height;
+
+    /* Where the entities are placed when the pasture is created, which is
+     * all of it unless it's unbounded */
+    private final int               startWidth;
+    private final int               startHeight;
+
+    private volatile PastureConfig config;
+
+    /* The store keeps the cell and what is due for each entity by handle,
+     * and the wheel knows which entities to wake up in which tick */
+    private final Grid        grid;
+    private final EntityStore store = new EntityStore();
+    private final TimerWheel  wheel = new TimerWheel();
+    private int               size  = 0;
+
+    /* The cells changed since the last snapshot, each one once, and the
+     * last snapshot taken. The bits of which cells are dirty are kept by
+     * chunk of the grid, and only for chunks with dirty cells. */
+    private final long[][]    dirty;
+    private int[]             dirtyCells   = new int[64];
+    private int               dirtyCount   = 0;
+    private PastureSnapshot   lastSnapshot;
+
+    /* The grid keeps the cells each species can't enter. They are kept
+     * up to date for the compatibilities of blockedConfig, which is
+     * caught up with the config when a tick starts. */
+    private PastureConfig     blockedConfig;
+
+    /* The entities due in the current tick, in the order to tick them,
+     * and a buffer for sorting them */
+    private Entity[]          due      = new Entity[64];
+    private long[]            dueKeys  = new long[64];
+    private int               dueCount = 0;
+
+    /* One list and one spatial index per species, by id, for ticking
+     * them species by species and for finding the nearest one */
+    private final EntityList[]      world;
+    private final SpatialIndex[]    indexes;
+
+    /* Number of obstacles of each species, by id. Obstacles are kept by
+     * the grid and aren't entities, see addObstacle(). */
+    private final int[]             obstacles;
+
+    /* The plants when they are a field rather than entities, or null */
+    private final PlantField        field;
 
-    private final int fences = PastureProperties.getInstance().getIntValue("fence.count_at_start");
-    private final int plants = PastureProperties.getInstance().getIntValue("plant.count_at_start");
-    private final int sheeps = PastureProperties.getInstance().getIntValue("sheep.count_at_start");
-    private final int wolfs  = PastureProperties.getInstance().getIntValue("wolf.count_at_start");
+    /* What happened to each species in the current tick, by id, and
+     * where to write it down when the tick is over */
+    private final int[]             births;
+    private final int[]             starved;
+    private final int[]             eaten;
+    private PopulationLog           log;
 
-    private final Set<Entity> world = new HashSet<Entity>();
-    private final Map<Point, List<Entity>> grid = new HashMap<Point, List<Entity>>();
-    private final Map<Entity, Point> point = new HashMap<Entity, Point>();
+    private final long          seed;
+    private final PastureRandom random;
 
-    private final PastureGUI gui;
+    private final Engine engine;
 
     /** 
-     * Creates a new instance of this class and places the entities in
-     * it on random positions.
+     * Creates a new instance of this class, displayed in a GUI, and
+     * places the entities in it on random positions.
      */
     public Pasture() {
+        this(true);
+    }
+
+    /**
+     * Creates a new pasture with the settings in pasture.properties.
+     * Without a GUI nothing is displayed and the simulation is run by
+     * calling Engine.run() on the engine returned by getEngine().
+     *
+     * The seed is taken from pasture.seed, or is different each time if
+     * that isn't set.
+     */
+    public Pasture(boolean withGui) {
+        this(new PastureProperties(), withGui);
+    }
+
+    /**
+     * Creates a new pasture with the settings in pasture.properties
+     * where everything random is decided by the seed. Two pastures with
+     * the same seed and settings run the same.
+     */
+    public Pasture(boolean withGui, long seed) {
+        this(new PastureProperties(), withGui, seed);
+    }
+
+    /**
+     * Creates a new pasture with the given settings, seeded from
+     * pasture.seed among them if it's set.
+     */
+    public Pasture(PastureProperties properties, boolean withGui) {
+        this(properties, withGui, defaultSeed(properties));
+    }
+
+    /**
+     * Creates a new pasture with the given settings. The pasture and its
+     * entities only ever look at these, so pastures with different
+     * settings can run side by side. Changes to the properties are
+     * picked up by reloadConfig().
+     */
+    public Pasture(PastureProperties properties, boolean withGui, long seed) {
+        this(properties, withGui, seed, true);
+    }
+
+    /* An empty pasture, without even the fence, unless populate is set */
+    private Pasture(PastureProperties properties, boolean withGui, long seed, boolean populate) {
+
+        this.properties = properties;
+        topology = readTopology(properties);
+        startWidth = properties.getIntValue("pasture.width");
+        startHeight = properties.getIntValue("pasture.height");
+        width = topology.equals(UNBOUNDED) ? UNBOUNDED_SIZE : startWidth;
+        height = topology.equals(UNBOUNDED) ? UNBOUNDED_SIZE : startHeight;
+        config = new PastureConfig(properties);
+        blockedConfig = config;
+
+        if (startWidth > width || startHeight > height)
+            throw new IllegalArgumentException("An unbounded pasture starts at most "
+                    + UNBOUNDED_SIZE + " squares wide and high");
+
+        grid = new Grid(width, height, !topology.equals(BOUNDED), config.size());
+        dirty = new long[grid.chunks()][];
+        field = readPlants(properties, config, grid);
 
-        Engine engine = new Engine(this);
-        gui = new PastureGUI(width, height, engine);
+        world = new EntityList[config.size()];
+        indexes = new SpatialIndex[config.size()];
+        obstacles = new int[config.size()];
+        births = new int[config.size()];
+        starved = new int[config.size()];
+        eaten = new int[config.size()];
 
-        /* The pasture is surrounded by a fence. Replace Dummy for
-         * Fence when you have created that class */
-        for (int i = 0; i < width; i++) {
-            addEntity(new Fence(this), new Point(i,0));
-            addEntity(new Fence(this), new Point(i, height - 1));
+        this.seed = seed;
+        random = new PastureRandom(seed);
+
+        for (int s = 0; s < config.size(); s++) {
+            world[s] = new EntityList();
+            indexes[s] = new SpatialIndex(grid);
         }
-        for (int i = 1; i < height-1; i++) {
-            addEntity(new Fence(this), new Point(0,i));
-            addEntity(new Fence(this), new Point(width - 1,i));
+
+        engine = new Engine(this);
+
+        if (!populate)
+            return;
+
+        /* A bounded pasture is surrounded by a fence, the others wrap
+         * around at the edges */
+        if (topology.equals(BOUNDED)) {
+            int fence = config.id("fence");
+            for (int i = 0; i < width; i++) {
+                addObstacle(fence, grid.index(i, 0));
+                addObstacle(fence, grid.index(i, height - 1));
+            }
+            for (int i = 1; i < height-1; i++) {
+                addObstacle(fence, grid.index(0, i));
+                addObstacle(fence, grid.index(width - 1, i));
+            }
         }
 
         /* 
          * Now insert the right number of different entities in the
          * pasture.
          */
-        for (int i = 0; i < plants; i++) {
-            Entity e = new Plant(this);
-            addEntity(e, getFreePosition(e));
+        for (int s = 0; s < config.size(); s++) {
+            populate(s, config.species(s).getCountAtStart());
+        }
+
+        if (withGui) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    new PastureGUI(width, height, engine);
+                }
+            });
         }
+    }
+
+    /* For reading a checkpoint into, see readState() */
+    static Pasture restore(PastureProperties properties, long seed) {
+        return new Pasture(properties, false, seed, false);
+    }
+
+    /**
+     * Saves everything about the pasture to a checkpoint file, from which
+     * load() can pick up the simulation again in the same tick. This must
+     * be done between two ticks, see Engine.getLock().
+     */
+    public void save(File file) throws IOException {
+        Checkpoint.save(this, file);
+    }
+
+    /**
+     * Reads a pasture without a GUI from a checkpoint saved by save().
+     * It gets the settings saved in the checkpoint as its own. Ticking
+     * it goes on exactly like the saved pasture would have, with the
+     * engine of the pasture or a ParallelEngine, as long as it's ticked
+     * by the same kind of engine as the saved one was.
+     */
+    public static Pasture load(File file) throws IOException {
+        return Checkpoint.load(file);
+    }
+
+    /**
+     * Creates a new entity of a species. What class it gets depends on
+     * the kind of the species. Fences aren't entities, see addObstacle().
+     */
+    public Entity createEntity(int species) {
+        String kind = config.species(species).getKind();
 
-        for (int i = 0; i < fences; i++) {
-            Entity e = new Fence(this);
-            addEntity(e, getFreePosition(e));
+        if (kind.equals(SpeciesConfig.ANIMAL)) {
+            return new Animal(this, species);
+        } else if (kind.equals(SpeciesConfig.PLANT)) {
+            return new Plant(this, species);
+        } else {
+            throw new IllegalArgumentException(config.species(species).getType()
+                    + " is an obstacle, not an entity");
         }
+    }
+
+    /** If the species is a kind of obstacle rather than entities */
+    public boolean isObstacle(int species) {
+        return config.species(species).getKind().equals(SpeciesConfig.FENCE);
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /** The state of the entities in the pasture, by handle */
+    EntityStore getStore() {
+        return store;
+    }
+
+    /** The settings the pasture was created from, see reloadConfig() */
+    public PastureProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * The settings the entities use. The snapshot never changes, but
+     * reloadConfig() can swap it for a new one at any time.
+     */
+    public PastureConfig getConfig() {
+        return config;
+    }
 
-        for (int i = 0; i < sheeps; i++) {
-            Entity e = new Sheep(this);
+    /**
+     * Compiles the current properties of the pasture into a new snapshot
+     * and swaps it in. Entities pick up the new settings the next time
+     * they look at them. This is safe to call from another thread while the
+     * engine is running.
+     *
+     * The species can't change, only their settings. Changes to which
+     * species can share a square take effect when the next tick starts.
+     */
+    public void reloadConfig() {
+        PastureConfig reloaded = new PastureConfig(properties);
 
-            addEntity(e, getFreePosition(e));
+        if (reloaded.size() != config.size())
+            throw new IllegalStateException("The species in a pasture can't change");
+        for (int s = 0; s < config.size(); s++) {
+            if (!reloaded.species(s).getType().equals(config.species(s).getType()))
+                throw new IllegalStateException("The species in a pasture can't change");
         }
 
-        for (int i = 0; i < wolfs; i++) {
-            Entity e = new Wolf(this);
-            addEntity(e, getFreePosition(e));
+        config = reloaded;
+    }
+
+    private static String readTopology(PastureProperties properties) {
+        String topology = properties.getValue("pasture.topology");
+
+        if (topology == null || topology.trim().isEmpty())
+            return BOUNDED;
+
+        topology = topology.trim();
+        if (!topology.equals(BOUNDED) && !topology.equals(TORUS) && !topology.equals(UNBOUNDED))
+            throw new IllegalArgumentException("Unknown pasture.topology " + topology);
+
+        return topology;
+    }
+
+    /**
+     * How the pasture ends: BOUNDED if it's surrounded by a fence, TORUS
+     * if it wraps around at the edges and UNBOUNDED if it's UNBOUNDED_SIZE
+     * squares wide and high and wraps around there. Only the parts of an
+     * unbounded pasture with something in them take up memory.
+     */
+    public String getTopology() {
+        return topology;
+    }
+
+    /* The field of the plant species if pasture.plants is field, there
+     * can only be one then */
+    private static PlantField readPlants(PastureProperties properties, PastureConfig config, Grid grid) {
+        String plants = properties.getValue("pasture.plants");
+
+        if (plants == null || plants.trim().isEmpty() || plants.trim().equals(ENTITIES))
+            return null;
+        if (!plants.trim().equals(FIELD))
+            throw new IllegalArgumentException("Unknown pasture.plants " + plants.trim());
+
+        int species = -1;
+        for (int s = 0; s < config.size(); s++) {
+            if (!config.species(s).getKind().equals(SpeciesConfig.PLANT))
+                continue;
+            if (species >= 0)
+                throw new IllegalArgumentException("Plants can only be a field when there is one species of them");
+            species = s;
         }
 
-        gui.update();
+        return species < 0 ? null : new PlantField(grid, species);
+    }
+
+    /**
+     * If the plants are a field rather than entities, see pasture.plants.
+     * Then they are never ticked but grow all at once every duplicate_limit
+     * ticks, and getPlant() tells where they are.
+     */
+    public boolean hasPlantField() {
+        return field != null;
+    }
+
+    /**
+     * The density of the plant in the cell when the plants are a field,
+     * from 0 where there is none to PlantField.MAX_DENSITY.
+     */
+    public int getPlant(int cell) {
+        return field == null ? 0 : field.get(cell);
+    }
+
+    private static long defaultSeed(PastureProperties properties) {
+        String seed = properties.getValue("pasture.seed");
+
+        if (seed == null || seed.trim().isEmpty())
+            return PastureRandom.randomSeed();
+
+        return Long.parseLong(seed.trim());
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * The random generator entities use when they are ticked one at a
+     * time. It must not be used from more than one thread, split it to
+     * get generators for other threads.
+     */
+    public PastureRandom getRandom() {
+        return random;
     }
 
-    public void refresh() {
-        gui.update();
+    /** The width of the pasture, see getTopology() */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Number of chunks of the grid with something in them */
+    public int getAllocatedChunks() {
+        return grid.getAllocatedChunks();
     }
 
     /**
@@ -81,94 +406,546 @@ public class Pasture {
      * If the first random position turns out to be occupied, the rest
      * of the board is searched to find a free position. 
      */
-    private Point getFreePosition(Entity toPlace) 
+    Point getFreePosition(Entity toPlace) 
             throws MissingResourceException {
-        Point position = new Point((int)(Math.random() * width),
-                (int)(Math.random() * height)); 
-
-        int p = position.x + position.y * width;
-        int m = height * width;
+        int p = random.nextInt(startWidth) + random.nextInt(startHeight) * startWidth;
+        int m = startHeight * startWidth;
         int q = 97; //any large prime will do
 
             for (int i = 0; i<m; i++) {
-                int j = (p+i*q) % m;
-                int x = j % width;
-                int y = j / width;
-
-                position = new Point(x,y);
-                boolean free = true;
-
-                Collection <Entity> c = getEntitiesAt(position);
-                if (c != null) {
-                    for (Entity thisThing : c) {
-                        if(!toPlace.isCompatible(thisThing)) { 
-                            free = false; break; 
-                        }
-                    }
-                }
-                if (free) return position;
+                int j = (int) ((p + (long) i * q) % m);
+                int cell = grid.index(j % startWidth, j / startWidth);
+
+                if (canPlace(toPlace.getSpecies(), cell))
+                    return new Point(grid.x(cell), grid.y(cell));
             }
             throw new MissingResourceException(
                     "There is no free space"+" left in the pasture",
                     "Pasture", "");
     }
 
+    /**
+     * Puts the given number of new entities, or obstacles, of a species
+     * on random free cells, one in each. Instead of searching for a free cell for each
+     * entity, the free cells are gathered once and as many as needed
+     * are drawn from them by a partial shuffle, so filling the pasture
+     * takes time linear in its size however full it gets.
+     *
+     * Only the cells where the pasture starts are used, see getTopology().
+     * When that is a big area and only a few entities are placed in it,
+     * see populateSparse(), random cells are tried instead.
+     */
+    private void populate(int species, int count)
+            throws MissingResourceException {
+        if (count <= 0)
+            return;
+
+        long area = (long) startWidth * startHeight;
+        if (area > SPARSE_AREA && count < area / 8 && populateSparse(species, count))
+            return;
+
+        int[] free = new int[startWidth * startHeight];
+        int n = 0;
+
+        for (int y = 0; y < startHeight; y++) {
+            for (int x = 0; x < startWidth; x++) {
+                int cell = grid.index(x, y);
+                if (canPlace(species, cell))
+                    free[n++] = cell;
+            }
+        }
+
+        if (n < count)
+            throw new MissingResourceException(
+                    "There is no free space left in the pasture for "
+                    + count + " " + config.species(species).getType(),
+                    "Pasture", "");
+
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(n - i);
+            int cell = free[j];
+            free[j] = free[i];
+            free[i] = cell;
+        }
+
+        /* Add them in the order of the cells rather than the order they
+         * were drawn in, which walks the grid and the indexes from one
+         * end to the other instead of jumping around in them */
+        Arrays.sort(free, 0, count);
+        place(species, free, count);
+    }
+
+    /* Adds an entity or obstacle of the species to each of the cells,
+     * or a fully grown plant if it's the species of the field */
+    private void place(int species, int[] cells, int count) {
+        if (isObstacle(species)) {
+            for (int i = 0; i < count; i++) {
+                addObstacle(species, cells[i]);
+            }
+            return;
+        }
+
+        if (field != null && species == field.getSpecies()) {
+            for (int i = 0; i < count; i++) {
+                field.set(cells[i], PlantField.MAX_DENSITY);
+                markDirty(cells[i]);
+            }
+            return;
+        }
+
+        store.ensureCapacity(store.getHandles() + count);
+        for (int i = 0; i < count; i++) {
+            addEntity(createEntity(species), cells[i]);
+        }
+    }
+
+    /* Tries random cells until count different ones are found where the
+     * entity fits, and adds entities there. Gives up without adding any
+     * if it takes too many tries, since then the area is too full for it. */
+    private boolean populateSparse(int species, int count) {
+        Set<Integer> chosen = new HashSet<Integer>();
+        int[] cells = new int[count];
+
+        for (int tries = 0; chosen.size() < count; tries++) {
+            if (tries == 16 * count)
+                return false;
+
+            int cell = grid.index(random.nextInt(startWidth), random.nextInt(startHeight));
+            if (canPlace(species, cell) && chosen.add(cell))
+                cells[chosen.size() - 1] = cell;
+        }
+
+        Arrays.sort(cells);
+        place(species, cells, count);
+        return true;
+    }
+
+    /* If an entity or obstacle of the species fits in the cell with
+     * what's already there. A cell has room for one obstacle, and one
+     * plant of the field. */
+    private boolean canPlace(int species, int cell) {
+        int n = grid.count(cell);
+        if (n == Grid.CAPACITY)
+            return false;
+
+        if (field != null && species == field.getSpecies() && field.get(cell) > 0)
+            return false;
+
+        int obstacle = grid.getObstacle(cell);
+        if (obstacle >= 0 && (isObstacle(species) || !config.isCompatible(species, obstacle)))
+            return false;
+
+        for (int i = 0; i < n; i++) {
+            if (!config.isCompatible(species, grid.get(cell, i).getSpecies()))
+                return false;
+        }
+        return true;
+    }
+
 
     public Point getPosition (Entity e) {
-        return point.get(e);
+        int cell = store.getCell(e.getHandle());
+        return new Point(grid.x(cell), grid.y(cell));
+    }
+
+    /**
+     * Returns the cell where the entity is. Cells are numbered chunk by
+     * chunk, use getX() and getY() to find the square of a cell.
+     */
+    public int getCell(Entity e) {
+        return store.getCell(e.getHandle());
+    }
+
+    public int getCell(int x, int y) {
+        return grid.index(x, y);
+    }
+
+    public int getX(int cell) {
+        return grid.x(cell);
+    }
+
+    public int getY(int cell) {
+        return grid.y(cell);
+    }
+
+    /**
+     * The steps along x from one cell to another, the short way around
+     * if the pasture wraps.
+     */
+    public int getDx(int from, int to) {
+        return grid.dx(from, to);
+    }
+
+    /** Like getDx() along y */
+    public int getDy(int from, int to) {
+        return grid.dy(from, to);
     }
 
     /**
      * Add a new entity to the pasture.
      */
     public void addEntity(Entity entity, Point pos) {
+        addEntity(entity, grid.index(pos.x, pos.y));
+    }
 
-        world.add(entity);
-
-        List<Entity> l = grid.get(pos);
-        if (l == null) {
-            l = new  ArrayList<Entity>();
-            grid.put(pos, l);
-        }
-        l.add(entity);
+    public void addEntity(Entity entity, int cell) {
 
-        point.put(entity,pos);
+        int handle = store.allocate(entity, config.species(entity.getSpecies()), cell, wheel.getTick());
+        entity.setHandle(handle);
+        size++;
+        schedule(handle);
 
-        gui.addEntity(entity, pos);
+        grid.add(cell, entity);
+        indexes[entity.getSpecies()].add(handle, cell);
+        world[entity.getSpecies()].add(entity);
+        updateBlocked(cell);
+        markDirty(cell);
     }
 
     public void moveEntity(Entity e, Point newPos) {
+        moveEntity(e, grid.index(newPos.x, newPos.y));
+    }
+
+    public void moveEntity(Entity e, int newCell) {
 
-        Point oldPos = point.get(e);
-        List<Entity> l = grid.get(oldPos);
-        if (!l.remove(e)) 
+        int handle = e.getHandle();
+        int oldCell = store.getCell(handle);
+        if (!grid.remove(oldCell, e)) 
             throw new IllegalStateException("Inconsistent stat in Pasture");
         /* We expect the entity to be at its old position, before we
            move, right? */
 
-        l = grid.get(newPos);
-        if (l == null) {
-            l = new ArrayList<Entity>();
-            grid.put(newPos, l);
+        grid.add(newCell, e);
+        indexes[e.getSpecies()].move(handle, oldCell, newCell);
+        store.setCell(handle, newCell);
+        updateBlocked(oldCell);
+        updateBlocked(newCell);
+        markDirty(oldCell);
+        markDirty(newCell);
+    }
+
+    /**
+     * Remove the specified entity from this pasture.
+     */
+    public void removeEntity(Entity entity) { 
+
+        int handle = entity.getHandle();
+        int cell = store.getCell(handle);
+
+        grid.remove(cell, entity);
+        indexes[entity.getSpecies()].remove(handle, cell);
+        world[entity.getSpecies()].remove(entity);
+        entity.setHandle(-1);
+        size--;
+        wheel.cancel(handle);
+        store.release(handle);
+        updateBlocked(cell);
+        markDirty(cell);
+    }
+
+    /**
+     * Puts an obstacle of a species, which must be a kind of obstacle,
+     * in the cell. An obstacle is never ticked and takes no room from
+     * the entities in its cell, but nothing can enter the cell that the
+     * settings don't let share a square with it.
+     */
+    public void addObstacle(int species, int cell) {
+        if (!isObstacle(species))
+            throw new IllegalArgumentException(config.species(species).getType() + " is not an obstacle");
+        if (grid.getObstacle(cell) >= 0)
+            throw new IllegalStateException("There is already an obstacle in cell " + cell);
+
+        grid.setObstacle(cell, species);
+        obstacles[species]++;
+        updateBlocked(cell);
+        markDirty(cell);
+    }
+
+    /** Takes away the obstacle in the cell, if there is one */
+    public void removeObstacle(int cell) {
+        int species = grid.getObstacle(cell);
+        if (species < 0)
+            return;
+
+        grid.setObstacle(cell, -1);
+        obstacles[species]--;
+        updateBlocked(cell);
+        markDirty(cell);
+    }
+
+    /** The species of the obstacle in the cell, or -1 if there is none */
+    public int getObstacle(int cell) {
+        return grid.getObstacle(cell);
+    }
+
+    /* Bytes writeState() needs */
+    long getStateBytes() {
+        return 4 + 8 + store.getStateBytes() + 4L * world.length + 4L * size
+            + 4 + (4L + 2 * Grid.CHUNK_CELLS) * grid.getAllocatedChunks() + 4L * size
+            + (field == null ? 4 : field.getStateBytes());
+    }
+
+    /**
+     * Writes the state of the pasture between two ticks: the tick, the
+     * random generator and the entity store, then the handles of each
+     * species in the order of its list and last the grid. The grid is
+     * written as the number of chunks with something in them, and for
+     * each of those the chunk, the number of entities in each of its
+     * cells and the species id + 1 of the obstacle in each cell, or 0.
+     * Then follow the handles in the order they are in the cells.
+     * Last comes the plant field, see PlantField.write(), or 0 if the
+     * plants are entities. Nothing is written that can be worked out
+     * from these.
+     */
+    void writeState(ByteBuffer out) {
+        out.putInt(getTick());
+        out.putLong(random.getState());
+        store.write(out);
+
+        for (EntityList list : world) {
+            out.putInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                out.putInt(list.get(i).getHandle());
+            }
+        }
+
+        out.putInt(grid.getAllocatedChunks());
+        for (int chunk = 0; chunk < grid.chunks(); chunk++) {
+            if (!grid.isAllocated(chunk))
+                continue;
+
+            int first = grid.firstCell(chunk);
+            out.putInt(chunk);
+            for (int cell = first; cell < first + Grid.CHUNK_CELLS; cell++) {
+                out.put((byte) grid.count(cell));
+            }
+            for (int cell = first; cell < first + Grid.CHUNK_CELLS; cell++) {
+                out.put((byte) (grid.getObstacle(cell) + 1));
+            }
         }
-        l.add(e);
+        for (int chunk = 0; chunk < grid.chunks(); chunk++) {
+            if (!grid.isAllocated(chunk))
+                continue;
 
-        point.put(e, newPos);
+            int first = grid.firstCell(chunk);
+            for (int cell = first; cell < first + Grid.CHUNK_CELLS; cell++) {
+                for (int i = 0; i < grid.count(cell); i++) {
+                    out.putInt(grid.get(cell, i).getHandle());
+                }
+            }
+        }
 
-        gui.moveEntity(e, oldPos, newPos);
+        if (field == null) {
+            out.putInt(0);
+        } else {
+            field.write(out);
+        }
     }
 
     /**
-     * Remove the specified entity from this pasture.
+     * Reads what writeState() wrote into an empty pasture, creating the
+     * entities again and scheduling what they have due.
      */
-    public void removeEntity(Entity entity) { 
+    void readState(ByteBuffer in) {
+        if (size > 0)
+            throw new IllegalStateException("Only an empty pasture can be restored");
+
+        wheel.start(in.getInt());
+        random.setState(in.getLong());
+        store.read(in);
+
+        for (int s = 0; s < world.length; s++) {
+            int n = in.getInt();
+
+            for (int i = 0; i < n; i++) {
+                int handle = in.getInt();
+                if (handle < 0 || handle >= store.getHandles() || !store.isLive(handle)
+                        || store.getSpecies(handle) != s || store.getEntity(handle) != null
+                        || !grid.isCell(store.getCell(handle)))
+                    throw new IllegalStateException("Handle " + handle + " in the checkpoint is broken");
+
+                Entity e = createEntity(s);
+                e.setHandle(handle);
+                store.setEntity(handle, e);
+                size++;
+                schedule(handle);
+
+                indexes[s].add(handle, store.getCell(handle));
+                world[s].add(e);
+            }
+        }
+
+        /* Every live handle must be in the list of its species */
+        for (int handle = 0; handle < store.getHandles(); handle++) {
+            if (store.isLive(handle) && store.getEntity(handle) == null)
+                throw new IllegalStateException("Handle " + handle + " in the checkpoint is broken");
+        }
+
+        int[] chunks = new int[in.getInt()];
+        byte[][] counts = new byte[chunks.length][Grid.CHUNK_CELLS];
+        byte[] obstacle = new byte[Grid.CHUNK_CELLS];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = in.getInt();
+            if (chunks[c] < 0 || chunks[c] >= grid.chunks())
+                throw new IllegalStateException("Chunk " + chunks[c] + " in the checkpoint is broken");
+            in.get(counts[c]);
+            in.get(obstacle);
+
+            int first = grid.firstCell(chunks[c]);
+            for (int i = 0; i < Grid.CHUNK_CELLS; i++) {
+                if (counts[c][i] < 0 || counts[c][i] > Grid.CAPACITY
+                        || (counts[c][i] > 0 && !grid.isCell(first + i)))
+                    throw new IllegalStateException("Cell " + (first + i) + " in the checkpoint is broken");
+
+                if (obstacle[i] != 0) {
+                    int species = obstacle[i] - 1;
+                    if (species < 0 || species >= config.size() || !isObstacle(species)
+                            || !grid.isCell(first + i) || grid.getObstacle(first + i) >= 0)
+                        throw new IllegalStateException("Obstacle " + obstacle[i] + " in cell "
+                                + (first + i) + " in the checkpoint is broken");
+
+                    grid.setObstacle(first + i, species);
+                    obstacles[species]++;
+                }
+            }
+        }
+        /* Each entity must be listed once, in the cell the store has for
+         * it */
+        int listed = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            int first = grid.firstCell(chunks[c]);
+            for (int i = 0; i < Grid.CHUNK_CELLS; i++) {
+                for (int j = 0; j < counts[c][i]; j++) {
+                    int handle = in.getInt();
+                    if (handle < 0 || handle >= store.getHandles() || !store.isLive(handle)
+                            || store.getCell(handle) != first + i || isInCell(store.getEntity(handle), first + i))
+                        throw new IllegalStateException("Handle " + handle + " in cell " + (first + i)
+                                + " in the checkpoint is broken");
+
+                    grid.add(first + i, store.getEntity(handle));
+                    listed++;
+                }
+            }
+        }
+        if (listed != size)
+            throw new IllegalStateException("The grid in the checkpoint is broken");
+
+        if (field != null) {
+            field.read(in);
+        } else if (in.getInt() != 0) {
+            throw new IllegalStateException("The checkpoint has a plant field but the settings don't");
+        }
+
+        updateBlocked();
+    }
+
+    private boolean isInCell(Entity e, int cell) {
+        for (int i = 0; i < grid.count(cell); i++) {
+            if (grid.get(cell, i) == e)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds an entity born in the current tick.
+     */
+    public void addBorn(Entity baby, int cell) {
+        addEntity(baby, cell);
+        births[baby.getSpecies()]++;
+    }
+
+    /**
+     * Removes an entity that starved to death in the current tick.
+     */
+    public void removeStarved(Entity entity) {
+        starved[entity.getSpecies()]++;
+        removeEntity(entity);
+    }
+
+    /**
+     * Removes an entity that was eaten in the current tick.
+     */
+    public void removeEaten(Entity entity) {
+        eaten[entity.getSpecies()]++;
+        removeEntity(entity);
+    }
+
+    /**
+     * Lets an entity of a species graze on the plant of the field in the
+     * cell, if it eats plants of the field and there is one. Returns if
+     * it got anything. A plant is eaten once it has no density left.
+     */
+    public boolean graze(int species, int cell) {
+        if (field == null || !config.eats(species, field.getSpecies()))
+            return false;
 
-        Point p = point.get(entity);
-        world.remove(entity); 
-        grid.get(p).remove(entity);
-        point.remove(entity);
-        gui.removeEntity(entity, p);
+        int density = field.get(cell);
+        if (density == 0)
+            return false;
 
+        field.set(cell, density - 1);
+        if (density == 1) {
+            eaten[field.getSpecies()]++;
+            markDirty(cell);
+        }
+        return true;
+    }
+
+    /* Works out again which species can't enter a cell. A full cell is
+     * blocked for everyone. */
+    private void updateBlocked(int cell) {
+        int n = grid.count(cell);
+        int obstacle = grid.getObstacle(cell);
+
+        for (int s = 0; s < world.length; s++) {
+            boolean isBlocked = n == Grid.CAPACITY
+                    || (obstacle >= 0 && !blockedConfig.isCompatible(obstacle, s));
+            for (int i = 0; i < n && !isBlocked; i++) {
+                isBlocked = !blockedConfig.isCompatible(grid.get(cell, i).getSpecies(), s);
+            }
+
+            grid.setBlocked(s, cell, isBlocked);
+        }
+    }
+
+    /* Works out every cell again, for new compatibilities. Empty chunks
+     * have nothing blocked. */
+    private void updateBlocked() {
+        blockedConfig = config;
+        for (int chunk = 0; chunk < grid.chunks(); chunk++) {
+            if (!grid.isAllocated(chunk))
+                continue;
+
+            int first = grid.firstCell(chunk);
+            for (int cell = first; cell < first + Grid.CHUNK_CELLS; cell++) {
+                updateBlocked(cell);
+            }
+        }
+    }
+
+    /* Remembers that a cell has changed until the next snapshot. However
+     * many times it changes it's only added once. Before the first
+     * snapshot there is nothing to remember, it looks at every cell. */
+    private void markDirty(int cell) {
+        if (lastSnapshot == null)
+            return;
+
+        long[] bits = dirty[Grid.chunk(cell)];
+        if (bits == null) {
+            bits = new long[Grid.CHUNK_CELLS >>> 6];
+            dirty[Grid.chunk(cell)] = bits;
+        }
+
+        long bit = 1L << cell;
+        int word = Grid.local(cell) >>> 6;
+        if ((bits[word] & bit) != 0)
+            return;
+
+        bits[word] |= bit;
+        if (dirtyCount == dirtyCells.length)
+            dirtyCells = Arrays.copyOf(dirtyCells, dirtyCount * 2);
+        dirtyCells[dirtyCount++] = cell;
     }
 
     /**
@@ -176,19 +953,292 @@ public class Pasture {
      */
 
     public List<Entity> getEntities() {
-        return new ArrayList<Entity>(world);
+        List<Entity> entities = new ArrayList<Entity>(size);
+
+        for (EntityList list : world) {
+            for (int i = 0; i < list.size(); i++) {
+                entities.add(list.get(i));
+            }
+        }
+
+        return entities;
+    }
+
+    /**
+     * Returns the live list of all entities of a species. It must not be
+     * walked while entities are added or removed, see EntityList.
+     */
+    public EntityList getEntities(int species) {
+        return world[species];
+    }
+
+    /**
+     * The number of the current tick. It's 0 until the first tick has
+     * started and is the number of ticks done once a tick is over.
+     */
+    public int getTick() {
+        return wheel.getTick();
+    }
+
+    /**
+     * Moves the pasture on to the next tick and returns how many
+     * entities have something due in it. Nothing else has to be ticked.
+     * The due entities are had from getDue() in the order they should be
+     * ticked, species by species in the order of their ids and by handle
+     * within a species.
+     *
+     * The engine has to call reschedule() for each due entity once it
+     * has been ticked.
+     */
+    public int advance() {
+        return advance(null);
+    }
+
+    /**
+     * Like advance(), but the plant field is grown by the threads of the
+     * pool, if it's grown in this tick.
+     */
+    public int advance(ForkJoinPool pool) {
+        if (blockedConfig != config)
+            updateBlocked();
+
+        Arrays.fill(due, 0, dueCount, null);
+        Arrays.fill(births, 0);
+        Arrays.fill(starved, 0);
+        Arrays.fill(eaten, 0);
+
+        int n = wheel.advance();
+        growField(pool);
+        int[] handles = wheel.getDue();
+
+        if (n > due.length) {
+            due = new Entity[Math.max(n, due.length * 2)];
+            dueKeys = new long[due.length];
+        }
+
+        for (int i = 0; i < n; i++) {
+            dueKeys[i] = (long) store.getSpecies(handles[i]) << 32 | handles[i];
+        }
+        Arrays.sort(dueKeys, 0, n);
+
+        for (int i = 0; i < n; i++) {
+            due[i] = store.getEntity((int) dueKeys[i]);
+        }
+        dueCount = n;
+
+        return n;
+    }
+
+    /* Grows the plant field every duplicate_limit ticks, before the
+     * entities are ticked like plant entities would be */
+    private void growField(ForkJoinPool pool) {
+        if (field == null)
+            return;
+
+        int limit = config.species(field.getSpecies()).getDuplicateLimit();
+        if (limit > 1 && getTick() % limit != 0)
+            return;
+
+        int born = field.grow(pool);
+        births[field.getSpecies()] += born;
+
+        int[] seeded = field.getSeeded();
+        for (int i = 0; i < born; i++) {
+            markDirty(seeded[i]);
+        }
+    }
+
+    /**
+     * The i:th entity due in the current tick, where i is less than what
+     * advance() returned. It may have been removed since, in which case
+     * its handle is -1.
+     */
+    public Entity getDue(int i) {
+        return due[i];
+    }
+
+    /**
+     * Schedules an entity that has been ticked for the next tick it has
+     * something due in. Removed entities are left alone.
+     */
+    public void reschedule(Entity e) {
+        if (e.getHandle() >= 0)
+            schedule(e.getHandle());
+    }
+
+    private void schedule(int handle) {
+        int tick = store.getNextDue(handle);
+
+        if (tick != EntityStore.NEVER)
+            wheel.schedule(handle, tick);
+    }
+
+    /**
+     * Number of entities of a species born in the current tick, or in
+     * the last one between two ticks.
+     */
+    public int getBirths(int species) {
+        return births[species];
+    }
+
+    /** Number of entities of a species that starved in the current tick */
+    public int getStarved(int species) {
+        return starved[species];
+    }
+
+    /** Number of entities of a species eaten in the current tick */
+    public int getEaten(int species) {
+        return eaten[species];
+    }
+
+    /**
+     * Writes down how many there are of each species and what happened
+     * to them in each tick from now on, or stops if the log is null. The
+     * log isn't closed by the pasture.
+     */
+    public void setPopulationLog(PopulationLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Called by the engine when a tick is over, to write it to the
+     * population log if there is one.
+     */
+    public void finishTick() {
+        if (log != null)
+            log.record(this);
+    }
+
+    /**
+     * Takes a snapshot of how the pasture looks now for displaying it.
+     * The pasture must not be ticked meanwhile, see Engine.getLock().
+     *
+     * Only the cells that changed since the last snapshot are looked
+     * at, the rest are copied from it.
+     */
+    public PastureSnapshot snapshot() {
+        byte[][] top;
+        int[] changed = null;
+
+        if (lastSnapshot == null) {
+            top = new byte[grid.chunks()][];
+            for (int chunk = 0; chunk < top.length; chunk++) {
+                if (!isAllocated(chunk))
+                    continue;
+
+                int first = grid.firstCell(chunk);
+                top[chunk] = new byte[Grid.CHUNK_CELLS];
+                for (int i = 0; i < Grid.CHUNK_CELLS; i++) {
+                    top[chunk][i] = getTop(first + i);
+                }
+            }
+        } else {
+            /* Share the chunks that haven't changed with the last snapshot,
+             * and copy the others the first time one of their cells is set.
+             * A chunk with nothing in it has nothing on top either. */
+            byte[][] before = lastSnapshot.getTops();
+            top = before.clone();
+            changed = Arrays.copyOf(dirtyCells, dirtyCount);
+
+            for (int cell : changed) {
+                int chunk = Grid.chunk(cell);
+                if (!isAllocated(chunk)) {
+                    top[chunk] = null;
+                    continue;
+                }
+
+                if (top[chunk] == before[chunk])
+                    top[chunk] = before[chunk] == null ? new byte[Grid.CHUNK_CELLS] : before[chunk].clone();
+                top[chunk][Grid.local(cell)] = getTop(cell);
+            }
+        }
+
+        for (int i = 0; i < dirtyCount; i++) {
+            dirty[Grid.chunk(dirtyCells[i])] = null;
+        }
+        dirtyCount = 0;
+
+        int[] population = new int[world.length];
+        for (int s = 0; s < world.length; s++) {
+            population[s] = getCount(s);
+        }
+
+        int number = lastSnapshot == null ? 0 : lastSnapshot.getNumber() + 1;
+        lastSnapshot = new PastureSnapshot(number, changed, getTick(), grid, top, population);
+        return lastSnapshot;
+    }
+
+    /* If the grid or the plant field has anything in the chunk */
+    private boolean isAllocated(int chunk) {
+        return grid.isAllocated(chunk) || (field != null && field.isAllocated(chunk));
+    }
+
+    /* The species id + 1 of the entity on top in a cell, the one added
+     * last, or of the obstacle if there is no entity, or of the plant of
+     * the field if there is neither, or 0 if it's empty */
+    private byte getTop(int cell) {
+        int n = grid.count(cell);
+        if (n > 0)
+            return (byte) (grid.get(cell, n - 1).getSpecies() + 1);
+
+        int obstacle = grid.getObstacle(cell);
+        if (obstacle < 0 && field != null && field.get(cell) > 0)
+            return (byte) (field.getSpecies() + 1);
+
+        return (byte) (obstacle + 1);
+    }
+
+    /**
+     * Number of entities, or obstacles, of a species in the pasture, or
+     * of squares with a plant for the plant field.
+     */
+    public int getCount(int species) {
+        int count = world[species].size() + obstacles[species];
+        return field != null && species == field.getSpecies() ? count + field.getCount() : count;
+    }
+
+    /**
+     * Counts the entities of each type currently in the pasture, and the
+     * obstacles.
+     */
+    public Map<String, Integer> getPopulation() {
+        Map<String, Integer> population = new HashMap<String, Integer>();
+
+        for (int s = 0; s < world.length; s++) {
+            if (getCount(s) > 0)
+                population.put(config.species(s).getType(), getCount(s));
+        }
+
+        return population;
     }
 
     public Collection<Entity> getEntitiesAt(Point lookAt) {
 
-        Collection<Entity> l = grid.get(lookAt);
+        if (!grid.contains(lookAt.x, lookAt.y))
+            return null;
+
+        int cell = grid.index(lookAt.x, lookAt.y);
+        int n = grid.count(cell);
 
-        if (l==null) {
+        if (n == 0) {
             return null;
         }
-        else {
-            return new ArrayList<Entity>(l);
+
+        List<Entity> l = new ArrayList<Entity>(n);
+        for (int i = 0; i < n; i++) {
+            l.add(grid.get(cell, i));
         }
+        return l;
+    }
+
+    /** Number of entities in the cell */
+    public int getEntityCount(int cell) {
+        return grid.count(cell);
+    }
+
+    /** The i:th entity in the cell, where i is less than getEntityCount(cell) */
+    public Entity getEntityAt(int cell, int i) {
+        return grid.get(cell, i);
     }
 
     /* This method will scan the area around an entitiy based on a vision value
@@ -197,16 +1247,18 @@ public class Pasture {
     public Collection<Entity> getEntitiesByVision(Entity e, int vision) {
         ArrayList<Entity> entities = new ArrayList<Entity>();
 
-        Point position = getEntityPosition(e);
+        int cell = getCell(e);
+        int x = grid.x(cell);
+        int y = grid.y(cell);
 
-        for (int scanY = position.y - vision; scanY <= position.y + vision; scanY++) {
-            for (int scanX = position.x - vision; scanX <= position.x + vision; scanX++) {
-                Collection<Entity> found = getEntitiesAt(new Point(scanX, scanY));
-                if (found == null)
+        for (int scanY = y - vision; scanY <= y + vision; scanY++) {
+            for (int scanX = x - vision; scanX <= x + vision; scanX++) {
+                if (!grid.contains(scanX, scanY))
                     continue;
 
-                for (Entity someone : found) {
-                    entities.add(someone);
+                int found = grid.index(scanX, scanY);
+                for (int i = 0; i < grid.count(found); i++) {
+                    entities.add(grid.get(found, i));
                 }
             }
         }
@@ -214,39 +1266,239 @@ public class Pasture {
         return entities;
     }
 
-    public List<Point> getFreeNeighbours(Entity entity) {
-        List<Point> free = new ArrayList<Point>();
+    /**
+     * Scans the area around an entity like getEntitiesByVision but
+     * hands each entity found to the visitor instead of collecting
+     * them, row by row from the top left corner. If the pasture wraps
+     * the area does too, but no square is visited twice.
+     */
+    public void visitEntitiesByVision(Entity e, int vision, EntityVisitor visitor) {
+        int cell = getCell(e);
+        int x = grid.x(cell);
+        int y = grid.y(cell);
+
+        int fromX, toX, fromY, toY;
+        if (grid.wraps()) {
+            fromX = x - vision;
+            toX   = Math.min(x + vision, fromX + width - 1);
+            fromY = y - vision;
+            toY   = Math.min(y + vision, fromY + height - 1);
+        } else {
+            fromX = Math.max(x - vision, 0);
+            toX   = Math.min(x + vision, width - 1);
+            fromY = Math.max(y - vision, 0);
+            toY   = Math.min(y + vision, height - 1);
+        }
+
+        for (int scanY = fromY; scanY <= toY; scanY++) {
+            for (int scanX = fromX; scanX <= toX; scanX++) {
+                int found = grid.index(scanX, scanY);
 
+                for (int i = 0; i < grid.count(found); i++) {
+                    visitor.visit(grid.get(found, i), found);
+                }
+            }
+        }
+    }
 
-        Point entityPoint = getEntityPosition(entity);
+    /**
+     * Returns the cell of the entity of the given species that is
+     * nearest to a cell and at most radius steps away in any direction,
+     * or -1 if there is none. This finds the same entities as a scan
+     * with the radius as vision, but without looking at every cell.
+     */
+    public int getNearest(int species, int cell, int radius) {
+        if (field != null && species == field.getSpecies())
+            return field.nearest(cell, radius);
 
-        int entityX = entityPoint.x;
-        int entityY = entityPoint.y;
+        return indexes[species].nearest(cell, radius);
+    }
+
+    /**
+     * Like getNearest() but for the nearest entity of any of the given
+     * species. If several are as far away, the one of the first species
+     * is returned.
+     */
+    public int getNearest(int[] species, int cell, int radius) {
+        int best = -1;
+
+        for (int s : species) {
+            int found = getNearest(s, cell, radius);
+
+            if (found >= 0) {
+                best = found;
+                /* Anything else has to be closer than this */
+                radius = Math.max(Math.abs(grid.dx(cell, found)),
+                        Math.abs(grid.dy(cell, found))) - 1;
+            }
+        }
+
+        return best;
+    }
+
+    public List<Point> getFreeNeighbours(Entity entity) {
+        List<Point> free = new ArrayList<Point>();
+
+        int cell = getCell(entity);
+        int entityX = grid.x(cell);
+        int entityY = grid.y(cell);
 
         for (int x = -1; x <= 1; x++) {
             for (int y = -1; y <= 1; y++) {
-                Point p = new Point(entityX + x, entityY + y);
-                if (freeSpace(p, entity))
-                    free.add(p);
+                if (freeSpace(entityX + x, entityY + y, entity)) {
+                    int found = grid.index(entityX + x, entityY + y);
+                    free.add(new Point(grid.x(found), grid.y(found)));
+                }
             }
         }        
         return free;
     }
 
+    /**
+     * Writes the free cells around and including the cell of the entity
+     * to the buffer, which must have room for nine cells, and returns
+     * how many there were. They come column by column from the top left.
+     */
+    public int getFreeNeighbours(Entity entity, int[] buffer) {
+        int cell = getCell(entity);
+        int x = grid.x(cell);
+        int y = grid.y(cell);
+        int species = entity.getSpecies();
+
+        /* Bit dx + 1 + 3 * (dy + 1) is set for each free cell in the
+         * window. Mostly the window is inside the chunk of the cell and
+         * is read at once, otherwise cell by cell. */
+        int n = 0;
+        if (grid.isInner(cell)) {
+            int free = ~grid.getBlockedAround(species, cell);
+
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((free & 1 << (dx + 1 + 3 * (dy + 1))) != 0)
+                        buffer[n++] = cell + dx + (dy << Grid.CHUNK_BITS);
+                }
+            }
+            return n;
+        }
+
+        int free = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (grid.contains(x + dx, y + dy)
+                        && !grid.isBlocked(species, grid.index(x + dx, y + dy)))
+                    free |= 1 << (dx + 1 + 3 * (dy + 1));
+            }
+        }
+
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if ((free & 1 << (dx + 1 + 3 * (dy + 1))) != 0)
+                    buffer[n++] = grid.index(x + dx, y + dy);
+            }
+        }
+        return n;
+    }
+
     public boolean freeSpace(Point p, Entity e) {                   
-        List <Entity> l = grid.get(p);
-        if ( l == null  ) return true;
-        for (Entity old : l ) 
-            if (! old.isCompatible(e)) return false;
-        return true;
+        return freeSpace(p.x, p.y, e);
+    }
+
+    /**
+     * Checks if the entity can go to the given square. Nothing can go
+     * outside of a bounded pasture, the others wrap around.
+     */
+    public boolean freeSpace(int x, int y, Entity e) {
+        if (!grid.contains(x, y))
+            return false;
+
+        return freeSpace(grid.index(x, y), e);
+    }
+
+    /**
+     * Checks if the entity can go to the cell, which it can if all
+     * entities there are compatible with it and there is room. This is
+     * a lookup in the cells blocked for its species.
+     */
+    public boolean freeSpace(int cell, Entity e) {
+        return !grid.isBlocked(e.getSpecies(), cell);
     }
 
     public Point getEntityPosition(Entity entity) {
-        return point.get(entity);
+        return getPosition(entity);
     }
 
-    /** The method for the JVM to run. */
-    public static void main(String[] args) {
+    /**
+     * The method for the JVM to run.
+     *
+     * Without arguments the pasture is displayed in a GUI. Run with
+     * "--headless <ticks>" to simulate the given number of ticks as
+     * fast as possible and print the populations and throughput.
+     * Add "--threads <n>" to tick with the parallel engine on n threads
+     * and "--seed <seed>" to replay a run. "--resume <file>" picks up
+     * the run from a checkpoint instead of starting a new pasture, and
+     * "--checkpoint <file>" saves one when the ticks are done.
+     * "--log <file>" writes the populations of each tick to a file, see
+     * PopulationLog.
+     *
+     * "--sweep" runs many pastures with different settings instead, see
+     * ParameterSweep.main() for its arguments.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            ParameterSweep.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--headless")) {
+            System.setProperty("java.awt.headless", "true");
+
+            int ticks = 1000;
+            int threads = 0;
+            PastureProperties properties = new PastureProperties();
+            long seed = defaultSeed(properties);
+            File resume = null;
+            File checkpoint = null;
+            File logFile = null;
+
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--seed")) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--resume")) {
+                    resume = new File(args[++i]);
+                } else if (args[i].equals("--checkpoint")) {
+                    checkpoint = new File(args[++i]);
+                } else if (args[i].equals("--log")) {
+                    logFile = new File(args[++i]);
+                } else {
+                    ticks = Integer.parseInt(args[i]);
+                }
+            }
+
+            Pasture pasture = resume != null ? load(resume) : new Pasture(properties, false, seed);
+
+            PopulationLog log = null;
+            if (logFile != null) {
+                log = new PopulationLog(logFile, pasture.getConfig());
+                pasture.setPopulationLog(log);
+            }
+
+            if (threads > 0) {
+                ParallelEngine engine = new ParallelEngine(pasture, threads);
+                System.out.println(engine.run(ticks));
+                engine.shutdown();
+            } else {
+                System.out.println(pasture.getEngine().run(ticks));
+            }
+
+            if (log != null)
+                log.close();
+            if (checkpoint != null)
+                pasture.save(checkpoint);
+            return;
+        }
+
         new Pasture();
     }
 }
@@ -0,0 +1,143 @@
+package pasture;
+
+import java.util.*;
+
+/**
+ * A snapshot of the settings in pasture.properties, compiled into one
+ * SpeciesConfig per species and matrices of how the species relate to
+ * each other, so that the questions asked while ticking are array
+ * lookups. A snapshot never changes, changed settings are picked up by
+ * creating a new one, see Pasture.reloadConfig().
+ *
+ * The species get their ids in the order of pasture.species, which is
+ * also the order they are ticked in. Species found in the properties
+ * but not listed there come last, sorted by name. As long as the same
+ * species are configured they keep their ids between snapshots.
+ */
+public final class PastureConfig {
+    /** Ids of species are kept in bytes by the EntityStore */
+    public static final int MAX_SPECIES = Byte.MAX_VALUE + 1;
+
+    private final SpeciesConfig[]       species;
+    private final Map<String, Integer>  ids = new HashMap<String, Integer>();
+
+    /* Matrices of size * size, see eats() and isCompatible() */
+    private final boolean[] eats;
+    private final boolean[] compatible;
+    private final int[][]   prey;
+    private final int[][]   predators;
+
+    /**
+     * Compiles the settings of every species found in the properties.
+     * A species is anything with keys on the form species.setting,
+     * except for the pasture itself.
+     */
+    public PastureConfig(PastureProperties properties) {
+        List<String> types = new ArrayList<String>(Arrays.asList(
+                SpeciesConfig.list(properties, "pasture.species")));
+
+        SortedSet<String> unlisted = new TreeSet<String>();
+        for (String key : properties.getKeys()) {
+            int dot = key.indexOf('.');
+            if (dot < 0)
+                continue;
+
+            String type = key.substring(0, dot);
+            if (!type.equals("pasture") && !types.contains(type))
+                unlisted.add(type);
+        }
+        types.addAll(unlisted);
+
+        int n = types.size();
+        if (n > MAX_SPECIES)
+            throw new IllegalArgumentException("At most " + MAX_SPECIES + " species are supported");
+
+        species = new SpeciesConfig[n];
+        for (int id = 0; id < n; id++) {
+            species[id] = new SpeciesConfig(properties, types.get(id), id);
+            ids.put(types.get(id), id);
+        }
+
+        /* One eats another if either one says so */
+        eats = new boolean[n * n];
+        for (SpeciesConfig s : species) {
+            for (String food : s.getIsEating())
+                eats[s.getId() * n + id(food)] = true;
+            for (String enemy : s.getIsEatenBy())
+                eats[id(enemy) * n + s.getId()] = true;
+        }
+
+        /* Anyone may enter the square of what it eats, and what a species
+         * shares its square with may also enter */
+        compatible = new boolean[n * n];
+        for (SpeciesConfig s : species) {
+            for (int other = 0; other < n; other++)
+                compatible[s.getId() * n + other] = eats[other * n + s.getId()];
+            for (String other : s.getSharesWith())
+                compatible[s.getId() * n + id(other)] = true;
+        }
+
+        prey = new int[n][];
+        predators = new int[n][];
+        for (int id = 0; id < n; id++) {
+            prey[id] = related(id, true);
+            predators[id] = related(id, false);
+        }
+    }
+
+    private int[] related(int id, boolean isPrey) {
+        int n = species.length;
+        int[] found = new int[n];
+        int count = 0;
+
+        for (int other = 0; other < n; other++) {
+            if (isPrey ? eats[id * n + other] : eats[other * n + id])
+                found[count++] = other;
+        }
+
+        return Arrays.copyOf(found, count);
+    }
+
+    /** Number of species, ids are 0 up to this */
+    public int size() {
+        return species.length;
+    }
+
+    public SpeciesConfig species(int id) {
+        return species[id];
+    }
+
+    /** The settings of a species, or null if there are none */
+    public SpeciesConfig species(String type) {
+        Integer id = ids.get(type);
+        return id == null ? null : species[id];
+    }
+
+    /** The id of a species */
+    public int id(String type) {
+        Integer id = ids.get(type);
+        if (id == null)
+            throw new IllegalArgumentException("Unknown species " + type);
+
+        return id;
+    }
+
+    public boolean eats(int eater, int eaten) {
+        return eats[eater * species.length + eaten];
+    }
+
+    /** If an entity of one species can enter a square where another one is */
+    public boolean isCompatible(int occupant, int entering) {
+        return compatible[occupant * species.length + entering];
+    }
+
+    /** The species a species eats */
+    public int[] getPrey(int id) {
+        return prey[id];
+    }
+
+    /** The species that eat a species */
+    public int[] getPredators(int id) {
+        return predators[id];
+    }
+}
@@ -1,26 +1,41 @@
+package pasture;
+
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import javax.swing.*;
 
+/**
+ * Displays a pasture while its engine ticks it on a thread of its own.
+ * The GUI never touches the pasture while it's ticked, it draws the
+ * snapshots published by the engine at its own frame rate.
+ */
 public class PastureGUI extends JFrame implements ActionListener {
 
-    private final ImageIcon II_EMPTY      = new ImageIcon("empty.gif");
     private final int       SCALE         = 30;
+    private final int       MAX_WIDTH     = 1200;
+    private final int       MAX_HEIGHT    = 800;
+    private final int       FRAME_RATE    = 25;
     private final Engine          engine;
+    private final Pasture         pasture;
+
+    /* Draws the latest snapshot of the pasture */
+    private final javax.swing.Timer frameTimer = new javax.swing.Timer(1000 / FRAME_RATE, this);
 
-    private final JLabel[][]      grid;
-    private final Map<Point, java.util.List<ImageIcon>> icons = 
-            new HashMap<Point, java.util.List<ImageIcon>>();
+    private final PastureView     view;
+    private PastureSnapshot       drawn;
 
     private final JLabel          clockLabel    = new JLabel("Time: 0");
     private final JLabel          entitiesLabel = new JLabel("Entities: 0");
-    private final JLabel          sheepLabel = new JLabel("Sheeps: 0");
-    private final JLabel          wolfLabel = new JLabel("Wolfs: 0");
-    private final JLabel          plantLabel = new JLabel("Plants: 0");
+    /* The number of each species by id, null for obstacles */
+    private final JLabel[]        populationLabels;
+    private final String[]        populationNames;
     private final JButton         startButton   = new JButton("Start");
     private final JButton         stopButton    = new JButton("Stop");
     private final JButton         exitButton    = new JButton("Exit");
+    private final JButton         fastButton    = new JButton("Max speed");
+    private final JButton         runButton     = new JButton("Run ticks");
+    private final JTextField      ticksField    = new JTextField("1000", 8);
 
     /* Settings */
     /* Lists */
@@ -42,10 +57,6 @@ public class PastureGUI extends JFrame implements ActionListener {
 
     private final int height;
     private final int width;
-    private int size = 0;
-    private int sheep = 0;
-    private int wolf = 0;
-    private int plant = 0;
 
     /**
      * Creates a new instance of this class with the specified
@@ -56,6 +67,19 @@ public class PastureGUI extends JFrame implements ActionListener {
         this.width = width;
 
         this.engine = engine;
+        pasture = engine.getPasture();
+
+        PastureConfig config = pasture.getConfig();
+        populationLabels = new JLabel[config.size()];
+        populationNames = new String[config.size()];
+        for (int s = 0; s < config.size(); s++) {
+            if (pasture.isObstacle(s))
+                continue;
+
+            String type = config.species(s).getType();
+            populationNames[s] = type.substring(0, 1).toUpperCase(Locale.ROOT) + type.substring(1);
+            populationLabels[s] = new JLabel(populationNames[s] + ": 0");
+        }
 
         /* Display information on how to change settings */
         JOptionPane.showMessageDialog(
@@ -71,11 +95,11 @@ public class PastureGUI extends JFrame implements ActionListener {
                         JOptionPane.PLAIN_MESSAGE
                 );
 
-        setSize(width * SCALE, height * SCALE);
-
         startButton.addActionListener(this);
         stopButton.addActionListener(this);
         exitButton.addActionListener(this);
+        fastButton.addActionListener(this);
+        runButton.addActionListener(this);
 
         sheepVision.addActionListener(this);
         sheepSpeed.addActionListener(this);
@@ -86,9 +110,10 @@ public class PastureGUI extends JFrame implements ActionListener {
         buttons.setLayout(new GridLayout(2,8));
         buttons.add(clockLabel);
         buttons.add(entitiesLabel);
-        buttons.add(sheepLabel);
-        buttons.add(wolfLabel);
-        buttons.add(plantLabel);
+        for (JLabel label : populationLabels) {
+            if (label != null)
+                buttons.add(label);
+        }
         buttons.add(startButton);
         buttons.add(stopButton);
         buttons.add(exitButton);
@@ -110,33 +135,32 @@ public class PastureGUI extends JFrame implements ActionListener {
         buttons.add(wolfS);
         buttons.add(wolfSpeed);
 
-        JPanel field = new JPanel();
-        field.setBackground(new Color(27,204,89));
-        field.setLayout(new GridLayout(height, width));
-        grid = new JLabel[width][height];
+        JPanel fastForward = new JPanel();
+        fastForward.add(fastButton);
+        fastForward.add(runButton);
+        fastForward.add(ticksField);
+        fastForward.add(new JLabel("Scroll to zoom, drag to pan"));
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                grid[x][y] = new JLabel(II_EMPTY);
-                grid[x][y].setVisible(true);
-                field.add(grid[x][y]);
-
-            }
-        }
+        /* Big pastures start zoomed out to fit */
+        int zoom = Math.min(SCALE, Math.min(MAX_WIDTH / width, MAX_HEIGHT / height));
+        view = new PastureView(pasture, zoom);
+        view.setPreferredSize(new Dimension(Math.min(view.getPreferredSize().width, MAX_WIDTH),
+                Math.min(view.getPreferredSize().height, MAX_HEIGHT)));
 
         Container display = getContentPane();
         display.setBackground(new Color(27,204,89));
         display.setLayout(new BorderLayout());
-        display.add(field,BorderLayout.CENTER);
+        display.add(view,BorderLayout.CENTER);
         display.add(buttons,BorderLayout.SOUTH);
+        display.add(fastForward,BorderLayout.NORTH);
 
-        startButton.setEnabled(true);
-        stopButton.setEnabled(false);
-        exitButton.setEnabled(true);
+        setRunning(false);
 
-        update();
+        draw(engine.getSnapshot());
+        frameTimer.start();
 
         setDefaultCloseOperation(EXIT_ON_CLOSE);
+        pack();
         setVisible(true);
     }
 
@@ -155,111 +179,76 @@ public class PastureGUI extends JFrame implements ActionListener {
                 String key    = String.format("%s.%s", animal, attr);
                 String value  = box.getSelectedItem().toString();
 
-                PastureProperties.getInstance().setValue(key, value);
+                pasture.getProperties().setValue(key, value);
+                pasture.reloadConfig();
             }
         }
 
         if (e.getSource() == startButton) {
-            sheepVision.setEnabled(false);
-            sheepSpeed.setEnabled(false);
-            wolfVision.setEnabled(false);
-            wolfSpeed.setEnabled(false);
-
-            startButton.setEnabled(false);
-            stopButton.setEnabled(true);
-            exitButton.setEnabled(true);
+            setRunning(true);
             engine.start();
         }
+        else if (e.getSource() == fastButton) {
+            setRunning(true);
+            engine.fastForward(-1);
+        }
+        else if (e.getSource() == runButton) {
+            try {
+                int ticks = Integer.parseInt(ticksField.getText().trim());
+                setRunning(true);
+                engine.fastForward(ticks);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Not a number of ticks: " + ticksField.getText(),
+                        "Run ticks", JOptionPane.ERROR_MESSAGE);
+            }
+        }
         else if (e.getSource() == stopButton) {
-            sheepVision.setEnabled(true);
-            sheepSpeed.setEnabled(true);
-            wolfVision.setEnabled(true);
-            wolfSpeed.setEnabled(true);
-
-            startButton.setEnabled(true);
-            stopButton.setEnabled(false);
-            exitButton.setEnabled(true);
             engine.stop();
+            setRunning(false);
+        }
+        else if (e.getSource() == frameTimer) {
+            draw(engine.getSnapshot());
+
+            /* A run of a number of ticks stops by itself */
+            if (stopButton.isEnabled() && !engine.isRunning())
+                setRunning(false);
         }
         else if (e.getSource() == exitButton) {
             System.exit(0);
         }
     }
 
-    /**
-     * The method addEntity is called to notify the GUI that an entity
-     * has been added to a position. The icon of the added entity is
-     * displayed at the position.
-     */
-
-    public void addEntity(Entity e, Point p) {
-        ImageIcon icon = e.getImage();
-
-        java.util.List<ImageIcon> l = icons.get(p);
-        if (l==null) {
-            l = new ArrayList<ImageIcon>();
-            icons.put(p, l);
-        }
-        l.add(icon);
-
-        grid[p.x][p.y].setIcon(icon);
-
-        size++;
-
-        if (e.getType().equals("sheep"))
-            sheep++;
-
-        if (e.getType().equals("wolf"))
-            wolf++;
-
-        if (e.getType().equals("plant"))
-            plant++;
-    }
-
-    public void moveEntity(Entity e, Point old, Point ny) {
-        removeEntity(e, old);
-        addEntity(e, ny);
+    /* Enables the controls that can be used while running or paused */
+    private void setRunning(boolean running) {
+        sheepVision.setEnabled(!running);
+        sheepSpeed.setEnabled(!running);
+        wolfVision.setEnabled(!running);
+        wolfSpeed.setEnabled(!running);
+
+        startButton.setEnabled(!running);
+        fastButton.setEnabled(!running);
+        runButton.setEnabled(!running);
+        ticksField.setEnabled(!running);
+        stopButton.setEnabled(running);
+        exitButton.setEnabled(true);
     }
 
     /**
-     * The method removeEntity is called to notify the GUI that an
-     * entity has been removed from a position. One icon among the
-     * icons of the remaining entities is displayed at the position.
+     * Displays a snapshot of the pasture and its populations.
      */
+    private void draw(PastureSnapshot snapshot) {
+        if (snapshot == drawn)
+            return;
 
+        view.display(snapshot);
 
-    public void removeEntity(Entity e, Point p) {
-
-        ImageIcon icon0 = e.getImage();
-
-        java.util.List<ImageIcon> l = icons.get(p);
-        l.remove(icon0);
-
-        ImageIcon icon;
-        if (l.isEmpty()) icon = II_EMPTY ;
-        else icon = l.get(0);
-
-        grid[p.x][p.y].setIcon(icon);
-
-        size--;
-
-        if (e.getType().equals("sheep"))
-            sheep--;
-
-        if (e.getType().equals("wolf"))
-            wolf--;
-
-        if (e.getType().equals("plant"))
-            plant--;
-    }
-
-    public void update() {
+        clockLabel.setText("Time: " + snapshot.getTick());
+        entitiesLabel.setText("Entities: " + snapshot.getSize());
+        for (int s = 0; s < populationLabels.length; s++) {
+            if (populationLabels[s] != null)
+                populationLabels[s].setText(populationNames[s] + ": " + snapshot.getPopulation(s));
+        }
 
-        clockLabel.setText("Time: " + engine.getTime());
-        entitiesLabel.setText("Entities: " + size);
-        sheepLabel.setText("Sheeps: " + sheep);
-        wolfLabel.setText("Wolfs: " + wolf);
-        plantLabel.setText("Plants: " + plant);
+        drawn = snapshot;
     }
 }
-
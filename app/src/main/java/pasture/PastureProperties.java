@@ -1,35 +1,41 @@
+package pasture;
+
 /*
- * PastureProperties is a singleton class which holds only one instance of itself
- * This class is used to get properties wide over the program.
+ * PastureProperties holds the settings of a pasture. Each pasture has an
+ * instance of its own, which it hands its entities the settings from, so
+ * that simulations with different settings can run side by side.
  * 
  * The user can ask for the key-value by either getValue (String) or getIntValue (Integer)
  */
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.MissingResourceException;
 import java.util.Properties;
+import java.util.Set;
 
 public class PastureProperties {
-    private static PastureProperties globalProperties;
-    private Properties prop = new Properties();        
+    private final Properties prop = new Properties();
 
-    private PastureProperties() {
+    /**
+     * Reads the default settings from pasture.properties.
+     */
+    public PastureProperties() {
         InputStream inStream = getClass().getClassLoader().getResourceAsStream("pasture.properties");
+        if (inStream == null)
+            throw new MissingResourceException("Could not find pasture.properties",
+                    "PastureProperties", "pasture.properties");
 
         try {
             prop.load(inStream);
+            inStream.close();
         } catch (IOException e) {
-            System.out.println("Could not read the properties");
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException("Could not read the properties", e);
         }
     }
 
-    public static PastureProperties getInstance() {
-        if (globalProperties == null) {
-            globalProperties = new PastureProperties();
-        }
-
-        return globalProperties;
+    /** A copy of the settings of another instance */
+    public PastureProperties(PastureProperties other) {
+        prop.putAll(other.prop);
     }
 
     public String getValue(String key) {
@@ -40,6 +46,10 @@ public class PastureProperties {
         return Integer.parseInt(prop.getProperty(key, null));
     }
 
+    public Set<String> getKeys() {
+        return prop.stringPropertyNames();
+    }
+
     public void setValue(String key, String value) {
         prop.setProperty(key, value);
     }
@@ -0,0 +1,61 @@
+package pasture;
+
+/**
+ * The random generator of the simulation. It's the SplitMix64 generator
+ * (the same one java.util.SplittableRandom uses) which is fast, not
+ * synchronized and can be split into independent streams, e.g. one per
+ * stripe of a parallel tick.
+ *
+ * Unlike SplittableRandom the state is a single long that can be read
+ * and set, so that a run can be replayed from any point.
+ */
+public class PastureRandom {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public PastureRandom(long seed) {
+        state = seed;
+    }
+
+    /** Returns a seed that is different each time */
+    public static long randomSeed() {
+        return mix64(System.nanoTime()) ^ mix64(System.currentTimeMillis());
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /** Returns a number from 0 up to, but not including, bound */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a new generator whose numbers are independent of the ones
+     * from this generator. Splitting advances this generator one step.
+     */
+    public PastureRandom split() {
+        return new PastureRandom(mix64(nextLong()));
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
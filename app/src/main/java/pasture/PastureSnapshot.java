@@ -0,0 +1,92 @@
+package pasture;
+
+/**
+ * What a pasture looked like after a tick, for displaying it while the
+ * engine goes on ticking on another thread. A snapshot never changes.
+ *
+ * For each square the snapshot only knows the species of the entity on
+ * top, which is the one displayed. It also knows which squares changed
+ * since the snapshot taken before it, so that only those have to be
+ * displayed again.
+ *
+ * The squares are kept by chunk of the grid like in the pasture, and
+ * a snapshot shares the chunks that didn't change with the one before.
+ */
+public final class PastureSnapshot {
+    private final int       number;
+    private final int[]     changed;
+    private final int       tick;
+    private final Grid      grid;
+    private final byte[][]  top;
+    private final int[]     population;
+
+    /**
+     * Creates a snapshot where top holds the species id + 1 of the entity
+     * on top in each cell by chunk, or 0 for an empty cell, and null for
+     * an empty chunk, and population the number of entities of each
+     * species. Changed holds the cells that may have changed since the
+     * snapshot numbered one less, or is null if they aren't known. The
+     * arrays are not copied. Only how the cells of the grid are numbered
+     * is looked at, not what is in it.
+     */
+    PastureSnapshot(int number, int[] changed, int tick, Grid grid, byte[][] top, int[] population) {
+        this.number = number;
+        this.changed = changed;
+        this.tick = tick;
+        this.grid = grid;
+        this.top = top;
+        this.population = population;
+    }
+
+    /** Snapshots of a pasture are numbered from 0 in the order they are taken */
+    public int getNumber() { return number; }
+
+    /**
+     * The cells (see getX() and getY()) that may have changed since the snapshot
+     * numbered one less than this one, or null if any of them may have.
+     * Each cell is there only once. The array must not be changed.
+     */
+    public int[] getChanged() { return changed; }
+
+    /** The number of ticks done when the snapshot was taken */
+    public int getTick() { return tick; }
+
+    public int getWidth() { return grid.getWidth(); }
+
+    public int getHeight() { return grid.getHeight(); }
+
+    /** The cell of a square */
+    public int getCell(int x, int y) { return grid.index(x, y); }
+
+    public int getX(int cell) { return grid.x(cell); }
+
+    public int getY(int cell) { return grid.y(cell); }
+
+    /** The species id + 1 of the entity on top in a cell, 0 if it's empty */
+    int getTop(int cell) {
+        byte[] chunk = top[Grid.chunk(cell)];
+        return chunk == null ? 0 : chunk[Grid.local(cell)] & 0xff;
+    }
+
+    /* For the next snapshot to start from, it must not be changed */
+    byte[][] getTops() {
+        return top;
+    }
+
+    /** The species of the entity on top in a square, -1 if it's empty */
+    public int getSpecies(int x, int y) {
+        return getTop(grid.index(x, y)) - 1;
+    }
+
+    public int getPopulation(int species) {
+        return population[species];
+    }
+
+    /** Number of entities in the pasture */
+    public int getSize() {
+        int size = 0;
+        for (int count : population)
+            size += count;
+        return size;
+    }
+}
@@ -0,0 +1,279 @@
+package pasture;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import javax.swing.*;
+
+/**
+ * Paints snapshots of a pasture. The visible part of the pasture is
+ * kept in an image the size of the component, and when a new snapshot
+ * is shown only the squares that changed are drawn again and repainted.
+ *
+ * Each square is drawn by copying a tile of its species into the
+ * pixels of the image. When zoomed in far enough the tiles are the
+ * image of the species, otherwise they are filled with its colour.
+ *
+ * The mouse wheel zooms in and out around the pointer and dragging the
+ * mouse pans.
+ */
+public class PastureView extends JComponent {
+    private static final long   serialVersionUID = 1L;
+
+    private static final Color  BACKGROUND  = new Color(27,204,89);
+    private static final Color  UNKNOWN     = Color.GRAY;
+
+    /** Smallest and largest size of a square in pixels */
+    public static final int     MIN_ZOOM    = 1;
+    public static final int     MAX_ZOOM    = 64;
+
+    /* Squares at least this big get the image of the species */
+    private static final int    IMAGE_ZOOM  = 8;
+
+    private final Pasture       pasture;
+
+    private BufferedImage       image;
+    private int[]               pixels;
+    private int                 zoom;
+    private int                 originX, originY;
+
+    /* The tile of each species by id at the current zoom, the last one is
+     * for empty squares */
+    private int[][]             tiles;
+
+    /* The snapshot shown, and if the image has to be drawn from scratch */
+    private PastureSnapshot     shown;
+    private boolean             invalid = true;
+
+    /**
+     * Creates a view showing a pasture with squares of the given size.
+     */
+    public PastureView(Pasture pasture, int zoom) {
+        this.pasture = pasture;
+        this.zoom = Math.max(MIN_ZOOM, Math.min(zoom, MAX_ZOOM));
+
+        setOpaque(true);
+        setPreferredSize(new Dimension(pasture.getWidth() * this.zoom, pasture.getHeight() * this.zoom));
+
+        MouseAdapter mouse = new MouseAdapter() {
+            private Point dragged;
+
+            public void mousePressed(MouseEvent e) {
+                dragged = e.getPoint();
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                if (dragged != null) {
+                    panTo(originX - (e.getX() - dragged.x), originY - (e.getY() - dragged.y));
+                    dragged = e.getPoint();
+                }
+            }
+
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                int to = e.getWheelRotation() < 0 ? zoom * 2 : zoom / 2;
+                zoomAt(to, e.getX(), e.getY());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Zooms to the given size of a square, keeping the point of the
+     * pasture at the given point of the view where it is.
+     */
+    public void zoomAt(int to, int x, int y) {
+        to = Math.max(MIN_ZOOM, Math.min(to, MAX_ZOOM));
+        if (to == zoom)
+            return;
+
+        double cellX = (originX + x) / (double) zoom;
+        double cellY = (originY + y) / (double) zoom;
+
+        zoom = to;
+        tiles = null;
+        panTo((int) (cellX * zoom) - x, (int) (cellY * zoom) - y);
+        invalidateImage();
+    }
+
+    /** Moves the view so that the given pixel of the pasture is at the top left */
+    public void panTo(int x, int y) {
+        int maxX = Math.max(pasture.getWidth() * zoom - getWidth(), 0);
+        int maxY = Math.max(pasture.getHeight() * zoom - getHeight(), 0);
+
+        x = Math.max(0, Math.min(x, maxX));
+        y = Math.max(0, Math.min(y, maxY));
+
+        if (x != originX || y != originY) {
+            originX = x;
+            originY = y;
+            invalidateImage();
+        }
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    private void invalidateImage() {
+        invalid = true;
+        repaint();
+    }
+
+    /**
+     * Shows a snapshot of the pasture. Only the squares that differ
+     * from the snapshot shown before are drawn and repainted. If that
+     * was the snapshot taken just before, only the squares it says
+     * changed are looked at.
+     */
+    public void display(PastureSnapshot snapshot) {
+        if (snapshot == shown)
+            return;
+
+        PastureSnapshot before = shown;
+        shown = snapshot;
+
+        if (invalid || image == null || before == null) {
+            invalidateImage();
+            return;
+        }
+
+        /* Draw the visible squares that changed, and repaint the smallest
+         * rectangle holding all of them */
+        int fromX = originX / zoom, toX = Math.min((originX + image.getWidth() - 1) / zoom, snapshot.getWidth() - 1);
+        int fromY = originY / zoom, toY = Math.min((originY + image.getHeight() - 1) / zoom, snapshot.getHeight() - 1);
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+
+        int[] changed = snapshot.getChanged();
+        boolean next = changed != null && snapshot.getNumber() == before.getNumber() + 1;
+        int n = next ? changed.length : (toY - fromY + 1) * (toX - fromX + 1);
+
+        for (int i = 0; i < n; i++) {
+            int x, y;
+            if (next) {
+                x = snapshot.getX(changed[i]);
+                y = snapshot.getY(changed[i]);
+                if (x < fromX || x > toX || y < fromY || y > toY)
+                    continue;
+            } else {
+                x = fromX + i % (toX - fromX + 1);
+                y = fromY + i / (toX - fromX + 1);
+            }
+
+            int cell = snapshot.getCell(x, y);
+            if (snapshot.getTop(cell) == before.getTop(cell))
+                continue;
+
+            drawSquare(x, y, snapshot.getTop(cell) - 1);
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        if (maxX >= 0) {
+            repaint(minX * zoom - originX, minY * zoom - originY,
+                    (maxX - minX + 1) * zoom, (maxY - minY + 1) * zoom);
+        }
+    }
+
+    protected void paintComponent(Graphics g) {
+        if (image == null || image.getWidth() != getWidth() || image.getHeight() != getHeight()) {
+            if (getWidth() <= 0 || getHeight() <= 0)
+                return;
+
+            image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+            /* Stay inside the pasture at the new size */
+            panTo(originX, originY);
+            invalid = true;
+        }
+
+        if (invalid) {
+            drawAll();
+            invalid = false;
+        }
+
+        g.drawImage(image, 0, 0, null);
+    }
+
+    /* Draws everything in sight from scratch */
+    private void drawAll() {
+        Arrays.fill(pixels, BACKGROUND.getRGB());
+        if (shown == null)
+            return;
+
+        int toX = Math.min((originX + image.getWidth() - 1) / zoom, shown.getWidth() - 1);
+        int toY = Math.min((originY + image.getHeight() - 1) / zoom, shown.getHeight() - 1);
+
+        for (int y = originY / zoom; y <= toY; y++) {
+            for (int x = originX / zoom; x <= toX; x++) {
+                drawSquare(x, y, shown.getSpecies(x, y));
+            }
+        }
+    }
+
+    /* Copies the tile of the species, or of an empty square, to the square
+     * row by row, leaving out what is outside the image */
+    private void drawSquare(int x, int y, int species) {
+        int[][] tiles = getTiles();
+        int[] tile = tiles[species < 0 ? tiles.length - 1 : species];
+
+        int left = x * zoom - originX;
+        int top = y * zoom - originY;
+        int from = Math.max(0, -left);
+        int to = Math.min(zoom, image.getWidth() - left);
+        int width = image.getWidth();
+
+        if (to <= from)
+            return;
+
+        for (int row = Math.max(0, -top); row < zoom && top + row < image.getHeight(); row++) {
+            System.arraycopy(tile, row * zoom + from, pixels, (top + row) * width + left + from, to - from);
+        }
+    }
+
+    private int[][] getTiles() {
+        if (tiles != null)
+            return tiles;
+
+        PastureConfig config = pasture.getConfig();
+        tiles = new int[config.size() + 1][];
+
+        for (int s = 0; s < config.size(); s++) {
+            tiles[s] = createTile(config.species(s));
+        }
+        tiles[config.size()] = createTile(null);
+
+        return tiles;
+    }
+
+    /* The tile of a species at the current zoom, or of an empty square */
+    private int[] createTile(SpeciesConfig species) {
+        BufferedImage tile = new BufferedImage(zoom, zoom, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, zoom, zoom);
+
+        if (species != null) {
+            ImageIcon icon = species.getImage();
+            boolean hasImage = icon != null && icon.getIconWidth() > 0;
+
+            if (zoom >= IMAGE_ZOOM && hasImage) {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(icon.getImage(), 0, 0, zoom, zoom, null);
+            } else {
+                g.setColor(species.getColor() != null ? species.getColor() : UNKNOWN);
+                g.fillRect(0, 0, zoom, zoom);
+            }
+        }
+
+        g.dispose();
+        return ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -1,52 +1,59 @@
-import java.awt.Point;
-import java.util.List;
-
-import javax.swing.ImageIcon;
+package pasture;
 
 public class Plant extends Stationary {
-    private final static String     type            = "plant";
-    private final static ImageIcon  image           = new ImageIcon(PastureProperties.getInstance().getValue(type + ".image"));
-    private final static int        DUPLICATE_DELAY = PastureProperties.getInstance().getIntValue(type + ".duplicate_limit");
-
-    private int duplicateDelay;
 
     public Plant(Pasture pasture) {
-        super(pasture, type);
-        duplicateDelay = DUPLICATE_DELAY;
+        this(pasture, pasture.getConfig().id("plant"));
     }
 
-    public ImageIcon getImage() { return image; }
+    public Plant(Pasture pasture, int species) {
+        super(pasture, species);
+    }
 
     public void tick() {
-        duplicateDelay--;
+        plan(pasture.getRandom());
+        commit();
+    }
+
+    public void plan(PastureRandom random) {
+        EntityStore store = pasture.getStore();
+
+        store.setPlannedBirth(getHandle(), -1);
+
+        if (store.getDuplicateDue(getHandle()) <= pasture.getTick())
+            store.setPlannedBirth(getHandle(), pollinate(random));
+    }
+
+    public void commit() {
+        EntityStore store = pasture.getStore();
+        int now = pasture.getTick();
+
+        if (store.getDuplicateDue(getHandle()) <= now) {
+            int plannedChild = store.getPlannedBirth(getHandle());
+            if (plannedChild >= 0 && pasture.freeSpace(plannedChild, this)) {
+                Plant child = new Plant(this.pasture, getSpecies());
+                pasture.addBorn(child, plannedChild);
+            }
 
-        if (duplicateDelay <= 0) {
             /* Always reset plant duplication time to avoid over population */
-            pollinate();
-            duplicateDelay = PastureProperties.getInstance().getIntValue(this.getType() + ".duplicate_limit");
+            int limit = pasture.getConfig().species(getSpecies()).getDuplicateLimit();
+            store.setDuplicateDue(getHandle(), EntityStore.due(now, limit));
         }
     }
 
     /* I didn't want the Plant object to be an instance
      * of alive objects since it would be bad OOP to let a plant know how to walk and eat
      * and things like that. However, a plant can in fact duplicate itself so
-     * this method is a light "static" variation of entity duplication
+     * this method is a light "static" variation of entity duplication.
+     * It returns the cell to put the child in, or -1 if there is no room.
      */
-    private boolean pollinate() {       
-        List<Point> freeNeighbors = pasture.getFreeNeighbours(this);
-
-        if (freeNeighbors.size() < 1)
-            return false;
-
-        Point n = freeNeighbors.get((int)(Math.random() * freeNeighbors.size()));
-        Plant child = new Plant(this.pasture);
-        pasture.addEntity(child, n);
-        return true;
-    }
+    private int pollinate(PastureRandom random) {
+        int[] freeNeighbors = Scratch.get().neighbours;
+        int n = pasture.getFreeNeighbours(this, freeNeighbors);
 
+        if (n < 1)
+            return -1;
 
-    /* A plant can share space with a sheep or a wolf */
-    public boolean isCompatible(Entity otherEntity) {
-        return otherEntity.getType().equals("sheep") || otherEntity.getType().equals("wolf");
+        return freeNeighbors[random.nextInt(n)];
     }
 }
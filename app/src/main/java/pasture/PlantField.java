@@ -0,0 +1,416 @@
+package pasture;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The plants of a pasture as a field rather than as entities, see
+ * pasture.plants. Each square has a density, 0 where there is no plant
+ * and MAX_DENSITY where a plant is fully grown. Like the grid the field
+ * is kept by chunk and a chunk only takes up memory while there are
+ * plants in it.
+ *
+ * The field grows in steps, see grow(). In each step every plant grows
+ * one density and every free square next to a fully grown plant gets a
+ * new plant. A step is a sweep over the chunks with plants in them, and
+ * since each chunk only depends on how its neighbours looked before the
+ * step, the chunks can be swept in any order or at the same time.
+ *
+ * Animals graze on the field by taking density from a square, see
+ * Pasture.graze().
+ */
+class PlantField {
+    /** Density of a fully grown plant */
+    public static final int MAX_DENSITY = 4;
+
+    /* Number of chunks swept in one task */
+    private static final int BAND = 16;
+
+    private static final int CHUNK_MASK = Grid.CHUNK_SIZE - 1;
+
+    private final Grid      grid;
+    private final int       species;
+
+    private final Chunk[]   chunks;
+    private int             allocated = 0;
+    private int             count     = 0;
+
+    /* The chunks swept by the last step, and the cells where it put new
+     * plants */
+    private int[]           sweep   = new int[64];
+    private int[]           seeded  = new int[64];
+
+    private static final class Chunk {
+        final byte[]    density = new byte[Grid.CHUNK_CELLS];
+        /* A bit per square with a fully grown plant, a word per row, as
+         * it was when the step started */
+        final int[]     mature  = new int[Grid.CHUNK_SIZE];
+        /* Squares with a plant, and how many of them are new this step */
+        int             cells;
+        int             seeded;
+    }
+
+    /** Creates an empty field of plants of the species on the grid */
+    public PlantField(Grid grid, int species) {
+        this.grid = grid;
+        this.species = species;
+        chunks = new Chunk[grid.chunks()];
+    }
+
+    /** The species of the plants */
+    public int getSpecies() { return species; }
+
+    /** Number of squares with a plant */
+    public int getCount() { return count; }
+
+    /** Number of chunks with plants in them */
+    public int getAllocatedChunks() { return allocated; }
+
+    /** If the chunk has any plants in it */
+    public boolean isAllocated(int chunk) { return chunks[chunk] != null; }
+
+    /** The density of the plant in the cell, 0 if there is none */
+    public int get(int cell) {
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        return chunk == null ? 0 : chunk.density[Grid.local(cell)];
+    }
+
+    /** Sets the density of the plant in the cell, 0 to take it away */
+    public void set(int cell, int density) {
+        if (density < 0 || density > MAX_DENSITY)
+            throw new IllegalArgumentException("A plant can't have the density " + density);
+
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        if (chunk == null) {
+            if (density == 0)
+                return;
+            chunk = allocate(Grid.chunk(cell));
+        }
+
+        int before = chunk.density[Grid.local(cell)];
+        chunk.density[Grid.local(cell)] = (byte) density;
+
+        if (before == 0 && density > 0) {
+            chunk.cells++;
+            count++;
+        } else if (before > 0 && density == 0) {
+            count--;
+            if (--chunk.cells == 0)
+                release(Grid.chunk(cell));
+        }
+    }
+
+    private Chunk allocate(int chunk) {
+        chunks[chunk] = new Chunk();
+        allocated++;
+        return chunks[chunk];
+    }
+
+    private void release(int chunk) {
+        chunks[chunk] = null;
+        allocated--;
+    }
+
+    /**
+     * Returns the cell with a plant closest to the given cell, at most
+     * radius steps away in any direction, or -1 if there is none. Ties
+     * are broken like SpatialIndex.nearest() does.
+     */
+    public int nearest(int from, int radius) {
+        int x = grid.x(from);
+        int y = grid.y(from);
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        boolean wraps = grid.wraps();
+
+        /* Square by square in rings around the cell, the first ring with
+         * a plant in it has the closest one. When the grid wraps each
+         * square is only at the offset that is the shortest way to it. */
+        for (int k = 0; k <= radius; k++) {
+            int best = -1;
+            int bestSquare = Integer.MAX_VALUE;
+
+            for (int dy = -k; dy <= k; dy++) {
+                if (wraps ? dy < -(height - 1) / 2 || dy > height / 2 : y + dy < 0 || y + dy >= height)
+                    continue;
+
+                int step = (dy == -k || dy == k) ? 1 : 2 * k;
+
+                for (int dx = -k; dx <= k; dx += step) {
+                    if (wraps ? dx < -(width - 1) / 2 || dx > width / 2 : x + dx < 0 || x + dx >= width)
+                        continue;
+
+                    int cell = grid.index(x + dx, y + dy);
+                    int square = dx * dx + dy * dy;
+
+                    if (get(cell) > 0 && (square < bestSquare || (square == bestSquare && cell < best))) {
+                        best = cell;
+                        bestSquare = square;
+                    }
+                }
+            }
+
+            if (best >= 0)
+                return best;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Grows the field one step and returns the number of new plants,
+     * whose cells are had from getSeeded(). A new plant is only put
+     * where the species isn't blocked, see Grid.isBlocked().
+     *
+     * With a pool the chunks are swept by its threads in bands of chunk
+     * rows, otherwise on the calling thread. The field grows the same
+     * either way.
+     */
+    public int grow(ForkJoinPool pool) {
+        int n = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                if (n == sweep.length)
+                    sweep = Arrays.copyOf(sweep, n * 2);
+                sweep[n++] = c;
+            }
+        }
+
+        /* First find the fully grown plants, then make room for the new
+         * plants they spread to in the chunks next to them */
+        run(pool, n, true);
+
+        int swept = n;
+        for (int i = 0; i < n; i++) {
+            if (hasMature(chunks[sweep[i]]))
+                swept = reserveAround(sweep[i], swept);
+        }
+
+        run(pool, swept, false);
+
+        /* Let go of the chunks reserved for nothing, and collect the new
+         * plants. Only they have the density 1 after a step. */
+        int born = 0;
+        for (int i = 0; i < swept; i++) {
+            Chunk chunk = chunks[sweep[i]];
+            count += chunk.seeded;
+
+            if (chunk.cells == 0) {
+                release(sweep[i]);
+                continue;
+            }
+            if (chunk.seeded == 0)
+                continue;
+
+            if (born + chunk.seeded > seeded.length)
+                seeded = Arrays.copyOf(seeded, Math.max(born + chunk.seeded, seeded.length * 2));
+
+            int first = grid.firstCell(sweep[i]);
+            for (int j = 0; j < Grid.CHUNK_CELLS; j++) {
+                if (chunk.density[j] == 1)
+                    seeded[born++] = first + j;
+            }
+        }
+
+        return born;
+    }
+
+    /** The cells of the new plants of the last step, see grow() */
+    public int[] getSeeded() {
+        return seeded;
+    }
+
+    private void run(ForkJoinPool pool, int n, boolean mature) {
+        if (pool == null || n <= BAND) {
+            for (int i = 0; i < n; i++) {
+                sweepChunk(sweep[i], mature);
+            }
+            return;
+        }
+
+        pool.invoke(new Bands(0, n, mature));
+    }
+
+    private void sweepChunk(int chunk, boolean mature) {
+        if (mature) {
+            findMature(chunks[chunk]);
+        } else {
+            step(chunk);
+        }
+    }
+
+    private static boolean hasMature(Chunk chunk) {
+        for (int row : chunk.mature) {
+            if (row != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static void findMature(Chunk chunk) {
+        for (int row = 0; row < Grid.CHUNK_SIZE; row++) {
+            int bits = 0;
+            for (int x = 0; x < Grid.CHUNK_SIZE; x++) {
+                if (chunk.density[row * Grid.CHUNK_SIZE + x] == MAX_DENSITY)
+                    bits |= 1 << x;
+            }
+            chunk.mature[row] = bits;
+        }
+    }
+
+    /* Allocates the chunks around a chunk, the ones the squares just
+     * outside of it are in, and adds them to the sweep after the n
+     * already in it. Returns the new number of chunks to sweep. */
+    private int reserveAround(int chunk, int n) {
+        int first = grid.firstCell(chunk);
+        int x0 = grid.x(first);
+        int y0 = grid.y(first);
+        int w = Math.min(Grid.CHUNK_SIZE, grid.getWidth() - x0);
+        int h = Math.min(Grid.CHUNK_SIZE, grid.getHeight() - y0);
+
+        int[] xs = { x0 - 1, x0, x0 + w };
+        int[] ys = { y0 - 1, y0, y0 + h };
+
+        for (int y : ys) {
+            for (int x : xs) {
+                if (!grid.contains(x, y))
+                    continue;
+
+                int around = Grid.chunk(grid.index(x, y));
+                if (chunks[around] != null)
+                    continue;
+
+                allocate(around);
+                if (n == sweep.length)
+                    sweep = Arrays.copyOf(sweep, n * 2);
+                sweep[n++] = around;
+            }
+        }
+
+        return n;
+    }
+
+    /* Grows the plants of a chunk one step. Only reads the mature bits
+     * of the chunks around it and writes nothing but its own chunk. */
+    private void step(int c) {
+        Chunk chunk = chunks[c];
+        int first = grid.firstCell(c);
+        int x0 = grid.x(first);
+        int y0 = grid.y(first);
+        int w = Math.min(Grid.CHUNK_SIZE, grid.getWidth() - x0);
+        int h = Math.min(Grid.CHUNK_SIZE, grid.getHeight() - y0);
+        long columns = (1L << w) - 1;
+
+        int born = 0;
+        for (int row = 0; row < h; row++) {
+            /* The squares next to a fully grown plant, one bit per column */
+            long near = line(x0, w, y0 + row - 1) | line(x0, w, y0 + row) | line(x0, w, y0 + row + 1);
+            long seeds = (near | near << 1 | near >>> 1) >>> 1 & columns
+                    & ~grid.getBlockedRow(species, first + (row << Grid.CHUNK_BITS));
+
+            byte[] density = chunk.density;
+            int base = row * Grid.CHUNK_SIZE;
+            for (int x = 0; x < w; x++) {
+                int d = density[base + x];
+                int grown = d == 0 ? (int) (seeds >>> x) & 1 : (d < MAX_DENSITY ? 1 : 0);
+
+                density[base + x] = (byte) (d + grown);
+                born += d == 0 ? grown : 0;
+            }
+        }
+
+        chunk.seeded = born;
+        chunk.cells += born;
+    }
+
+    /* The mature bits of the squares x0 - 1 to x0 + w on row y, where x0
+     * is the first column of a chunk and w its width, with bit 0 for
+     * x0 - 1 */
+    private long line(int x0, int w, int y) {
+        if (!grid.contains(x0, y))
+            return 0;
+
+        int cell = grid.index(x0, y);
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        long bits = chunk == null ? 0 : chunk.mature[(cell >>> Grid.CHUNK_BITS) & CHUNK_MASK] & 0xffffffffL;
+
+        return bits << 1 | (isMature(x0 - 1, y) ? 1 : 0) | (isMature(x0 + w, y) ? 1L << (w + 1) : 0);
+    }
+
+    private boolean isMature(int x, int y) {
+        if (!grid.contains(x, y))
+            return false;
+
+        int cell = grid.index(x, y);
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        return chunk != null && (chunk.mature[(cell >>> Grid.CHUNK_BITS) & CHUNK_MASK] >>> (cell & CHUNK_MASK) & 1) != 0;
+    }
+
+    /* Bytes write() needs */
+    long getStateBytes() {
+        return 4 + (4L + Grid.CHUNK_CELLS) * allocated;
+    }
+
+    /**
+     * Writes the number of chunks with plants in them, and for each of
+     * those the chunk and the density of each of its cells.
+     */
+    void write(ByteBuffer out) {
+        out.putInt(allocated);
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                out.putInt(c);
+                out.put(chunks[c].density);
+            }
+        }
+    }
+
+    /** Reads what write() wrote into an empty field */
+    void read(ByteBuffer in) {
+        if (count > 0)
+            throw new IllegalStateException("Only an empty field can be restored");
+
+        int n = in.getInt();
+        byte[] density = new byte[Grid.CHUNK_CELLS];
+
+        for (int i = 0; i < n; i++) {
+            int c = in.getInt();
+            if (c < 0 || c >= chunks.length)
+                throw new IllegalStateException("Chunk " + c + " in the checkpoint is broken");
+            in.get(density);
+
+            int first = grid.firstCell(c);
+            for (int j = 0; j < Grid.CHUNK_CELLS; j++) {
+                set(first + j, density[j]);
+            }
+        }
+    }
+
+    /* Splits the chunks to sweep in halves until they are a band */
+    private class Bands extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int       from, to;
+        private final boolean   mature;
+
+        Bands(int from, int to, boolean mature) {
+            this.from = from;
+            this.to = to;
+            this.mature = mature;
+        }
+
+        protected void compute() {
+            if (to - from <= BAND) {
+                for (int i = from; i < to; i++) {
+                    sweepChunk(sweep[i], mature);
+                }
+                return;
+            }
+
+            int middle = (from + to) / 2;
+            invokeAll(new Bands(from, middle, mature), new Bands(middle, to, mature));
+        }
+    }
+}
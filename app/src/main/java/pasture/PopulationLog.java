@@ -0,0 +1,196 @@
+package pasture;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes what happened to each species in each tick to a file: how
+ * many there are when the tick is over, how many were born and how
+ * many starved or were eaten during it.
+ *
+ * The pasture hands over one row per tick and goes on ticking, the
+ * rows are written by a thread of the log through a buffer. Only when
+ * the writing falls QUEUE_SIZE rows behind does the pasture have to
+ * wait for it. Rows that have been written are handed back to be
+ * filled again, so a long run doesn't allocate one per tick.
+ *
+ * A file ending with .csv gets a header with the columns and one line
+ * per tick. Any other file is binary, written by a DataOutputStream:
+ * the number of species and the name of each, then for each tick the
+ * tick followed by the four numbers of each species in order.
+ */
+public class PopulationLog {
+    /** How many rows the pasture can be ahead of the writing */
+    public static final int QUEUE_SIZE = 4096;
+
+    /* Put in the queue by close() to stop the thread */
+    private static final int[] END = new int[0];
+
+    private final String[]              types;
+    private final boolean               csv;
+    private final DataOutputStream      out;
+    private final BlockingQueue<int[]>  queue = new ArrayBlockingQueue<int[]>(QUEUE_SIZE);
+    /* Rows written and ready to be filled again */
+    private final BlockingQueue<int[]>  spare = new ArrayBlockingQueue<int[]>(QUEUE_SIZE);
+    private final Thread                writer;
+
+    private volatile IOException        failure;
+    private boolean                     closed = false;
+
+    /**
+     * Opens a log of the species in the configuration, replacing the
+     * file if it exists.
+     */
+    public PopulationLog(File file, PastureConfig config) throws IOException {
+        types = new String[config.size()];
+        for (int s = 0; s < types.length; s++) {
+            types[s] = config.species(s).getType();
+        }
+
+        csv = file.getName().endsWith(".csv");
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "pasture-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a row for the tick the pasture just finished, with the
+     * number of each species and what happened to them in the tick.
+     */
+    public void record(Pasture pasture) {
+        if (closed)
+            throw new IllegalStateException("The log is closed");
+
+        /* Nothing more is written once the writing has failed, close()
+         * tells why */
+        if (failure != null)
+            return;
+
+        int n = types.length;
+        int[] row = spare.poll();
+        if (row == null)
+            row = new int[1 + 4 * n];
+
+        row[0] = pasture.getTick();
+        for (int s = 0; s < n; s++) {
+            row[1 + s] = pasture.getCount(s);
+            row[1 + n + s] = pasture.getBirths(s);
+            row[1 + 2 * n + s] = pasture.getStarved(s);
+            row[1 + 3 * n + s] = pasture.getEaten(s);
+        }
+
+        try {
+            queue.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for everything queued to be written and closes the file.
+     * Throws what went wrong if the writing failed.
+     */
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+
+            try {
+                queue.put(END);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /* Run by the thread of the log until close() */
+    private void write() {
+        try {
+            if (csv) {
+                writeCsvHeader();
+            } else {
+                writeBinaryHeader();
+            }
+
+            while (true) {
+                /* Flush whenever there is nothing to do for a while, so
+                 * that the file can be followed while the pasture runs */
+                int[] row = queue.poll(1, TimeUnit.SECONDS);
+                if (row == null) {
+                    out.flush();
+                    continue;
+                }
+                if (row == END)
+                    break;
+
+                if (csv) {
+                    writeCsv(row);
+                } else {
+                    writeBinary(row);
+                }
+                spare.offer(row);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            /* Only close() stops the log */
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+
+            /* Don't keep the pasture waiting for a log that's gone */
+            queue.clear();
+        }
+    }
+
+    private void writeCsvHeader() throws IOException {
+        StringBuilder line = new StringBuilder("tick");
+        for (String suffix : new String[]{ "", "_births", "_starved", "_eaten" }) {
+            for (String type : types) {
+                line.append(',').append(type).append(suffix);
+            }
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeCsv(int[] row) throws IOException {
+        StringBuilder line = new StringBuilder(row.length * 4);
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0)
+                line.append(',');
+            line.append(row[i]);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeBinaryHeader() throws IOException {
+        out.writeInt(types.length);
+        for (String type : types) {
+            out.writeUTF(type);
+        }
+    }
+
+    private void writeBinary(int[] row) throws IOException {
+        for (int value : row) {
+            out.writeInt(value);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package pasture;
+
+/**
+ * Buffers that entities reuse while they tick so that a tick doesn't
+ * produce any garbage. There is one set of buffers per thread and
+ * the buffers may only be used until the next call to something else
+ * that uses the same buffer.
+ */
+class Scratch {
+    private static final ThreadLocal<Scratch> local = new ThreadLocal<Scratch>() {
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /** Room for all the cells around and including a cell */
+    final int[] neighbours = new int[9];
+
+    private Scratch() {}
+
+    static Scratch get() {
+        return local.get();
+    }
+}
@@ -0,0 +1,49 @@
+package pasture;
+
+import java.util.*;
+
+/**
+ * The outcome of a headless run started with Engine.run(). Holds the
+ * populations in the pasture when the run ended and how long the run
+ * took so the throughput can be measured, together with the seed of
+ * the pasture so that the run can be replayed.
+ */
+public class SimulationResult {
+    private final long                  seed;
+    private final int                   ticks;
+    private final long                  elapsedNanos;
+    private final Map<String, Integer>  population;
+
+    public SimulationResult(long seed, int ticks, long elapsedNanos, Map<String, Integer> population) {
+        this.seed = seed;
+        this.ticks = ticks;
+        this.elapsedNanos = elapsedNanos;
+        this.population = Collections.unmodifiableMap(new TreeMap<String, Integer>(population));
+    }
+
+    public long getSeed() { return seed; }
+
+    public int getTicks() { return ticks; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    /** Number of entities of each type alive when the run ended */
+    public Map<String, Integer> getPopulation() { return population; }
+
+    public int getPopulation(String type) {
+        Integer count = population.get(type);
+        return count == null ? 0 : count;
+    }
+
+    public double getTicksPerSecond() {
+        if (elapsedNanos == 0)
+            return 0;
+
+        return ticks / (elapsedNanos / 1e9);
+    }
+
+    public String toString() {
+        return String.format("%d ticks in %.3f s (%.1f ticks/s) %s seed %d",
+                ticks, elapsedNanos / 1e9, getTicksPerSecond(), population, seed);
+    }
+}
@@ -0,0 +1,195 @@
+package pasture;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of where all entities of one type are by sorting them
+ * into square buckets of cells. Finding the nearest entity then only
+ * has to look at the buckets closest to where the search starts
+ * instead of every cell within the vision.
+ *
+ * The buckets are kept by chunk of the grid, and a chunk only has
+ * buckets while there are entities in it.
+ *
+ * The pasture updates the index each time an entity of the type is
+ * added, moved or removed. Entities are identified by their handle.
+ */
+class SpatialIndex {
+    /** Width and height of a bucket in cells */
+    public static final int BUCKET_SIZE = 8;
+
+    private static final int BUCKETS = Grid.CHUNK_SIZE / BUCKET_SIZE;
+
+    private final Grid      grid;
+    private final int       columns;
+    private final int       rows;
+
+    /* How many buckets closer than they look the buckets of a ring can
+     * be, which they are across the edge of a wrapping grid that isn't
+     * a whole number of buckets wide or high */
+    private final int       slack;
+
+    /* The buckets of each chunk, by bucket in the chunk. slot maps a
+     * handle to where it is in its bucket. */
+    private final Chunk[]   chunks;
+    private int[]           slot = new int[64];
+
+    private static final class Chunk {
+        final int[][]   handles = new int[BUCKETS * BUCKETS][];
+        final int[][]   cells   = new int[BUCKETS * BUCKETS][];
+        final int[]     counts  = new int[BUCKETS * BUCKETS];
+        int             entities;
+    }
+
+    public SpatialIndex(Grid grid) {
+        this.grid = grid;
+        columns = (grid.getWidth() + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        rows = (grid.getHeight() + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        slack = grid.wraps() && (grid.getWidth() % BUCKET_SIZE != 0
+                || grid.getHeight() % BUCKET_SIZE != 0) ? 1 : 0;
+        chunks = new Chunk[grid.chunks()];
+    }
+
+    /* The bucket of a cell within its chunk, row by row */
+    private static int bucket(int cell) {
+        int local = Grid.local(cell);
+        int column = (local & (Grid.CHUNK_SIZE - 1)) / BUCKET_SIZE;
+        int row = (local >>> Grid.CHUNK_BITS) / BUCKET_SIZE;
+        return row * BUCKETS + column;
+    }
+
+    public void add(int handle, int cell) {
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        if (chunk == null) {
+            chunk = new Chunk();
+            chunks[Grid.chunk(cell)] = chunk;
+        }
+
+        int b = bucket(cell);
+        int n = chunk.counts[b];
+
+        if (chunk.handles[b] == null) {
+            chunk.handles[b] = new int[4];
+            chunk.cells[b] = new int[4];
+        } else if (n == chunk.handles[b].length) {
+            chunk.handles[b] = Arrays.copyOf(chunk.handles[b], n * 2);
+            chunk.cells[b] = Arrays.copyOf(chunk.cells[b], n * 2);
+        }
+
+        if (handle >= slot.length)
+            slot = Arrays.copyOf(slot, Math.max(handle + 1, slot.length * 2));
+
+        chunk.handles[b][n] = handle;
+        chunk.cells[b][n] = cell;
+        slot[handle] = n;
+        chunk.counts[b] = n + 1;
+        chunk.entities++;
+    }
+
+    public void remove(int handle, int cell) {
+        Chunk chunk = chunks[Grid.chunk(cell)];
+        int b = bucket(cell);
+        int i = slot[handle];
+        int last = --chunk.counts[b];
+
+        /* Fill the hole with the last entity in the bucket */
+        chunk.handles[b][i] = chunk.handles[b][last];
+        chunk.cells[b][i] = chunk.cells[b][last];
+        slot[chunk.handles[b][i]] = i;
+
+        if (--chunk.entities == 0)
+            chunks[Grid.chunk(cell)] = null;
+    }
+
+    public void move(int handle, int oldCell, int newCell) {
+        if (Grid.chunk(oldCell) == Grid.chunk(newCell) && bucket(oldCell) == bucket(newCell)) {
+            chunks[Grid.chunk(newCell)].cells[bucket(newCell)][slot[handle]] = newCell;
+            return;
+        }
+
+        remove(handle, oldCell);
+        add(handle, newCell);
+    }
+
+    /**
+     * Returns the cell of the entity closest to the given cell that is
+     * within radius steps in any direction (the same square a vision
+     * covers), or -1 if there is none. Distance is the number of steps
+     * needed to get there, around the edges if the grid wraps. Ties are
+     * broken by straight line distance and then by the lowest cell so
+     * the result doesn't depend on the order entities were added.
+     */
+    public int nearest(int from, int radius) {
+        int x = grid.x(from);
+        int y = grid.y(from);
+        int bx = x / BUCKET_SIZE;
+        int by = y / BUCKET_SIZE;
+        boolean wraps = grid.wraps();
+
+        int best = -1;
+        int bestSteps = radius + 1;
+        int bestSquare = Integer.MAX_VALUE;
+
+        /* Look at the buckets ring by ring around the bucket of the start
+         * cell. Nothing in ring k can be closer than (k - 1) * BUCKET_SIZE + 1
+         * steps so the search ends when that is further than what's found.
+         * When the grid wraps, each bucket is only at one offset, the
+         * one between -(columns - 1) / 2 and columns / 2. */
+        for (int k = 0; k == 0 || (k - 1 - slack) * BUCKET_SIZE + 1 <= bestSteps; k++) {
+            if (wraps ? k > columns / 2 && k > rows / 2 : k > columns && k > rows)
+                break;
+
+            for (int ry = by - k; ry <= by + k; ry++) {
+                if (wraps ? ry - by < -(rows - 1) / 2 || ry - by > rows / 2 : ry < 0 || ry >= rows)
+                    continue;
+
+                /* Only the edges of the ring are new, the inside was done before */
+                int step = (ry == by - k || ry == by + k) ? 1 : 2 * k;
+
+                for (int rx = bx - k; rx <= bx + k; rx += step) {
+                    if (wraps ? rx - bx < -(columns - 1) / 2 || rx - bx > columns / 2 : rx < 0 || rx >= columns)
+                        continue;
+
+                    int left = (wraps ? Math.floorMod(rx, columns) : rx) * BUCKET_SIZE;
+                    int top = (wraps ? Math.floorMod(ry, rows) : ry) * BUCKET_SIZE;
+                    int first = grid.index(left, top);
+                    Chunk chunk = chunks[Grid.chunk(first)];
+                    if (chunk == null)
+                        continue;
+
+                    int b = bucket(first);
+                    int[] c = chunk.cells[b];
+
+                    /* The cells of a bucket are in the same chunk, so they
+                     * are where they are in the chunk from its corner */
+                    int chunkX = left & ~(Grid.CHUNK_SIZE - 1);
+                    int chunkY = top & ~(Grid.CHUNK_SIZE - 1);
+
+                    for (int i = 0; i < chunk.counts[b]; i++) {
+                        int local = Grid.local(c[i]);
+                        int dx = chunkX + (local & (Grid.CHUNK_SIZE - 1)) - x;
+                        int dy = chunkY + (local >>> Grid.CHUNK_BITS) - y;
+                        if (wraps) {
+                            dx = grid.shortestX(dx);
+                            dy = grid.shortestY(dy);
+                        }
+                        dx = Math.abs(dx);
+                        dy = Math.abs(dy);
+                        int steps = Math.max(dx, dy);
+                        int square = dx * dx + dy * dy;
+
+                        if (steps < bestSteps
+                                || (steps == bestSteps && best >= 0
+                                    && (square < bestSquare || (square == bestSquare && c[i] < best)))) {
+                            best = c[i];
+                            bestSteps = steps;
+                            bestSquare = square;
+                        }
+                    }
+                }
+            }
+        }
+
+        return best;
+    }
+}
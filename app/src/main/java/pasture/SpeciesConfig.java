@@ -0,0 +1,126 @@
+package pasture;
+
+import java.awt.Color;
+import java.util.*;
+import javax.swing.ImageIcon;
+
+/**
+ * The settings of one species (type of entity), read from
+ * pasture.properties once so that nothing has to be looked up or
+ * parsed while ticking. Settings that aren't given for the species are
+ * 0 or empty.
+ *
+ * Each species has a small id, its index in the PastureConfig it
+ * belongs to. How the species relate to each other (who eats who and
+ * who can share a square) is kept by the PastureConfig.
+ */
+public final class SpeciesConfig {
+    /** Kinds of species, decides what class the entities get */
+    public static final String ANIMAL = "animal";
+    public static final String PLANT  = "plant";
+    public static final String FENCE  = "fence";
+
+    /** Longest delay, the timer wheel of a pasture can't look further ahead */
+    public static final int MAX_DELAY = TimerWheel.HORIZON - 1;
+
+    /* Images are shared between snapshots so that an entity keeps the
+     * same icon when the settings are reloaded */
+    private static final Map<String, ImageIcon> images = new HashMap<String, ImageIcon>();
+
+    private final int       id;
+    private final String    type;
+    private final String    kind;
+    private final ImageIcon image;
+    private final Color     color;
+    private final int       countAtStart;
+    private final int       visionLength;
+    private final int       moveDelay;
+    private final int       duplicateLimit;
+    private final int       noFoodLimit;
+    private final String[]  isEating;
+    private final String[]  isEatenBy;
+    private final String[]  sharesWith;
+
+    SpeciesConfig(PastureProperties properties, String type, int id) {
+        this.id = id;
+        this.type = type;
+        kind            = value(properties, type + ".kind");
+        image           = image(value(properties, type + ".image"));
+        color           = color(value(properties, type + ".color"));
+        countAtStart    = intValue(properties, type + ".count_at_start");
+        visionLength    = intValue(properties, type + ".vision_length");
+        moveDelay       = intValue(properties, type + ".move_delay");
+        duplicateLimit  = intValue(properties, type + ".duplicate_limit");
+        noFoodLimit     = intValue(properties, type + ".no_food_limit");
+        isEating        = list(properties, type + ".is_eating");
+        isEatenBy       = list(properties, type + ".is_eaten_by");
+        sharesWith      = list(properties, type + ".shares_with");
+
+        if (!kind.equals(ANIMAL) && !kind.equals(PLANT) && !kind.equals(FENCE))
+            throw new IllegalArgumentException("Unknown kind '" + kind + "' of " + type);
+        if (moveDelay > MAX_DELAY || duplicateLimit > MAX_DELAY || noFoodLimit > MAX_DELAY)
+            throw new IllegalArgumentException("The delays of " + type + " can't be more than " + MAX_DELAY);
+        if (moveDelay < 0 || duplicateLimit < 0 || noFoodLimit < 0)
+            throw new IllegalArgumentException("The delays of " + type + " can't be negative");
+    }
+
+    private static int intValue(PastureProperties properties, String key) {
+        String value = value(properties, key);
+        return value.isEmpty() ? 0 : Integer.parseInt(value);
+    }
+
+    private static String value(PastureProperties properties, String key) {
+        String value = properties.getValue(key);
+        return value == null ? "" : value.trim();
+    }
+
+    /* A comma separated list of species */
+    static String[] list(PastureProperties properties, String key) {
+        String value = value(properties, key);
+        return value.isEmpty() ? new String[0] : value.split("\\s*,\\s*");
+    }
+
+    /* A colour like #ff8800, or null if none is given */
+    private static Color color(String value) {
+        return value.isEmpty() ? null : Color.decode(value);
+    }
+
+    private static ImageIcon image(String file) {
+        synchronized (images) {
+            ImageIcon image = images.get(file);
+            if (image == null) {
+                image = new ImageIcon(file);
+                images.put(file, image);
+            }
+            return image;
+        }
+    }
+
+    public int getId() { return id; }
+
+    public String getType() { return type; }
+
+    /** One of ANIMAL, PLANT or FENCE */
+    public String getKind() { return kind; }
+
+    public ImageIcon getImage() { return image; }
+
+    /** The colour a square with this species is drawn in when zoomed out, or null */
+    public Color getColor() { return color; }
+
+    public int getCountAtStart() { return countAtStart; }
+
+    public int getVisionLength() { return visionLength; }
+
+    public int getMoveDelay() { return moveDelay; }
+
+    public int getDuplicateLimit() { return duplicateLimit; }
+
+    public int getNoFoodLimit() { return noFoodLimit; }
+
+    String[] getIsEating() { return isEating; }
+
+    String[] getIsEatenBy() { return isEatenBy; }
+
+    String[] getSharesWith() { return sharesWith; }
+}
@@ -1,18 +1,32 @@
+package pasture;
+
 import javax.swing.*;
 
 abstract class Stationary implements Entity {
     protected final Pasture pasture;
-    private String type;
+    private final int species;
+    private int handle = -1;
 
-    public Stationary(Pasture pasture, String t) {
+    public Stationary(Pasture pasture, int species) {
         this.pasture = pasture;
-        type = t;
+        this.species = species;
     }
 
     abstract public void tick();
+    abstract public void plan(PastureRandom random);
+    abstract public void commit();
+
+    public ImageIcon getImage() { return pasture.getConfig().species(species).getImage(); }
+
+    public boolean isCompatible(Entity otherEntity) {
+        return pasture.getConfig().isCompatible(species, otherEntity.getSpecies());
+    }
+
+    public String getType() { return pasture.getConfig().species(species).getType(); }
+
+    public int getSpecies() { return species; }
 
-    public abstract ImageIcon getImage();
-    public abstract boolean isCompatible(Entity otherEntity);
+    public int getHandle() { return handle; }
 
-    public String getType() { return type; }
+    public void setHandle(int handle) { this.handle = handle; }
 }
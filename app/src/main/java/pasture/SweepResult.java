@@ -0,0 +1,73 @@
+package pasture;
+
+import java.util.*;
+
+/**
+ * The outcome of all replicates of one combination of settings in a
+ * ParameterSweep: the settings that were varied, and the populations
+ * each run ended with, summed up per type.
+ */
+public class SweepResult {
+    private final Map<String, String>       settings;
+    private final List<String>              types;
+    private final List<SimulationResult>    runs;
+
+    public SweepResult(Map<String, String> settings, List<String> types, List<SimulationResult> runs) {
+        this.settings = Collections.unmodifiableMap(new LinkedHashMap<String, String>(settings));
+        this.types = Collections.unmodifiableList(new ArrayList<String>(types));
+        this.runs = Collections.unmodifiableList(new ArrayList<SimulationResult>(runs));
+    }
+
+    /** The value of each varied setting, in the order they were varied */
+    public Map<String, String> getSettings() { return settings; }
+
+    /** The types of entities in the pastures */
+    public List<String> getTypes() { return types; }
+
+    /** The result of each replicate, in the order of their seeds */
+    public List<SimulationResult> getRuns() { return runs; }
+
+    public double getMeanPopulation(String type) {
+        long sum = 0;
+        for (SimulationResult run : runs)
+            sum += run.getPopulation(type);
+
+        return runs.isEmpty() ? 0 : sum / (double) runs.size();
+    }
+
+    public int getMinPopulation(String type) {
+        int min = Integer.MAX_VALUE;
+        for (SimulationResult run : runs)
+            min = Math.min(min, run.getPopulation(type));
+
+        return runs.isEmpty() ? 0 : min;
+    }
+
+    public int getMaxPopulation(String type) {
+        int max = 0;
+        for (SimulationResult run : runs)
+            max = Math.max(max, run.getPopulation(type));
+
+        return max;
+    }
+
+    /** Number of runs where none of the type were left at the end */
+    public int getExtinctions(String type) {
+        int extinct = 0;
+        for (SimulationResult run : runs) {
+            if (run.getPopulation(type) == 0)
+                extinct++;
+        }
+
+        return extinct;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder(settings.toString());
+        for (String type : types) {
+            s.append(String.format(Locale.ROOT, " %s=%.1f [%d, %d]", type, getMeanPopulation(type),
+                    getMinPopulation(type), getMaxPopulation(type)));
+        }
+        return s.toString();
+    }
+}
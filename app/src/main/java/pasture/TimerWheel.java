@@ -0,0 +1,167 @@
+package pasture;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of which tick each entity should be woken up in, so that
+ * only the entities that have something to do are ticked. Entities are
+ * known by their handles.
+ *
+ * This is a hierarchical timing wheel with three levels of 64 slots.
+ * The first level has one slot per tick for the next 64 ticks, the
+ * second one slot per 64 ticks and the third one slot per 4096 ticks.
+ * Whenever a slot of a higher level comes up its handles are spread
+ * out over the lower levels, so scheduling and waking up an entity
+ * costs the same no matter how many entities are waiting.
+ *
+ * Scheduling an entity again simply replaces the tick it's woken up
+ * in. The old entry is left in its slot and skipped when it comes up.
+ */
+class TimerWheel {
+    private static final int BITS   = 6;
+    private static final int SLOTS  = 1 << BITS;
+    private static final int MASK   = SLOTS - 1;
+    private static final int LEVELS = 3;
+
+    /** How many ticks ahead an entity can be scheduled */
+    public static final int HORIZON = 1 << (BITS * LEVELS);
+
+    /* The tick of a handle that isn't scheduled */
+    private static final int NONE = -1;
+
+    private final int[][]   slots   = new int[LEVELS * SLOTS][];
+    private final int[]     counts  = new int[LEVELS * SLOTS];
+    private int[]           wake    = new int[64];
+    private int[]           due     = new int[64];
+    private int             now     = 0;
+
+    public TimerWheel() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new int[8];
+        }
+        Arrays.fill(wake, NONE);
+    }
+
+    /** The tick the wheel is at, 0 until advance() is first called */
+    public int getTick() {
+        return now;
+    }
+
+    /**
+     * Starts the wheel at a tick other than 0, for a pasture restored
+     * from a checkpoint. Only a wheel that hasn't been used can start.
+     */
+    public void start(int tick) {
+        if (now != 0)
+            throw new IllegalStateException("The wheel is already at tick " + now);
+
+        for (int count : counts) {
+            if (count != 0)
+                throw new IllegalStateException("Handles are already scheduled");
+        }
+
+        now = tick;
+    }
+
+    /**
+     * Wakes the handle up in the given tick instead of when it was
+     * scheduled before, if it was.
+     */
+    public void schedule(int handle, int tick) {
+        if (tick <= now || tick - now >= HORIZON)
+            throw new IllegalArgumentException("Can't schedule tick " + tick + " in tick " + now);
+
+        if (handle >= wake.length) {
+            int length = wake.length;
+            wake = Arrays.copyOf(wake, Math.max(length * 2, handle + 1));
+            Arrays.fill(wake, length, wake.length, NONE);
+        }
+
+        wake[handle] = tick;
+        insert(handle, tick);
+    }
+
+    /** Makes sure the handle isn't woken up until it's scheduled again */
+    public void cancel(int handle) {
+        if (handle < wake.length)
+            wake[handle] = NONE;
+    }
+
+    /**
+     * Moves on to the next tick and returns how many handles are woken
+     * up in it. They can be had from getDue(). A handle is only woken
+     * up once, it has to be scheduled again to be woken up again.
+     */
+    public int advance() {
+        now++;
+
+        /* Spread out the slots of the higher levels that come up, the
+         * highest first since it may fill the slot of the level below */
+        if ((now & MASK) == 0) {
+            if (((now >> BITS) & MASK) == 0)
+                cascade(2);
+            cascade(1);
+        }
+
+        int slot = now & MASK;
+        int[] handles = slots[slot];
+        int n = 0;
+
+        for (int i = 0; i < counts[slot]; i++) {
+            int handle = handles[i];
+
+            /* Old entries and entries added twice by a cascade are skipped */
+            if (wake[handle] == now) {
+                wake[handle] = NONE;
+
+                if (n == due.length)
+                    due = Arrays.copyOf(due, n * 2);
+                due[n++] = handle;
+            }
+        }
+        counts[slot] = 0;
+
+        return n;
+    }
+
+    /** The handles woken up by the last call to advance() */
+    public int[] getDue() {
+        return due;
+    }
+
+    private void insert(int handle, int tick) {
+        int distance = tick - now;
+        int level = 0;
+
+        while (distance >= 1 << (BITS * (level + 1)))
+            level++;
+
+        int slot = level * SLOTS + ((tick >> (BITS * level)) & MASK);
+        if (counts[slot] == slots[slot].length)
+            slots[slot] = Arrays.copyOf(slots[slot], counts[slot] * 2);
+        slots[slot][counts[slot]++] = handle;
+    }
+
+    /* Moves the handles in the slot of the level that starts now down to
+     * the levels below. All handles that are still scheduled in the slot
+     * are due within the span of the slot. */
+    private void cascade(int level) {
+        int shift = BITS * level;
+        int slot = level * SLOTS + ((now >> shift) & MASK);
+        int[] handles = slots[slot];
+        int n = counts[slot];
+
+        /* The slot is emptied first but never filled again by insert(),
+         * since everything in it is due within fewer ticks than a slot
+         * of this level spans */
+        counts[slot] = 0;
+
+        for (int i = 0; i < n; i++) {
+            int handle = handles[i];
+            int tick = wake[handle];
+
+            if (tick != NONE && tick >= now && (tick >> shift) == (now >> shift))
+                insert(handle, tick);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package pasture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static pasture.TestPastures.properties;
+
+public class CheckpointTest {
+
+    private static File temporary() throws IOException {
+        File file = File.createTempFile("pasture", ".checkpoint");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static byte[] checkpoint(Pasture pasture) throws IOException {
+        File file = temporary();
+        pasture.save(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        file.delete();
+        return bytes;
+    }
+
+    private static SimulationResult run(Pasture pasture, int ticks, int threads) {
+        if (threads == 0)
+            return pasture.getEngine().run(ticks);
+
+        ParallelEngine engine = new ParallelEngine(pasture, threads);
+        try {
+            return engine.run(ticks);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /* Runs 300 ticks, saves, loads and runs 300 more, and compares the
+     * pasture to one run 600 ticks straight */
+    private static void resume(String topology, String plants, int threads) throws IOException {
+        Pasture straight = new Pasture(properties(topology, plants), false, 17);
+        SimulationResult expected = run(straight, 600, threads);
+
+        Pasture saved = new Pasture(properties(topology, plants), false, 17);
+        run(saved, 300, threads);
+        File file = temporary();
+        saved.save(file);
+
+        Pasture resumed = Pasture.load(file);
+        file.delete();
+        assertEquals(300, resumed.getTick());
+        SimulationResult result = run(resumed, 300, threads);
+
+        String name = topology + " with " + plants;
+        assertEquals(name, expected.getPopulation(), result.getPopulation());
+        assertEquals(name, 600, resumed.getTick());
+        assertArrayEquals(name, checkpoint(straight), checkpoint(resumed));
+    }
+
+    @Test public void resumesBoundedPastures() throws IOException {
+        resume(Pasture.BOUNDED, Pasture.ENTITIES, 0);
+    }
+
+    @Test public void resumesTorusPastures() throws IOException {
+        resume(Pasture.TORUS, Pasture.ENTITIES, 0);
+    }
+
+    @Test public void resumesUnboundedPastures() throws IOException {
+        resume(Pasture.UNBOUNDED, Pasture.ENTITIES, 0);
+    }
+
+    @Test public void resumesPlantFields() throws IOException {
+        resume(Pasture.BOUNDED, Pasture.FIELD, 0);
+        resume(Pasture.TORUS, Pasture.FIELD, 0);
+    }
+
+    @Test public void resumesParallelRuns() throws IOException {
+        resume(Pasture.BOUNDED, Pasture.ENTITIES, 3);
+        resume(Pasture.UNBOUNDED, Pasture.FIELD, 2);
+    }
+
+    /* Runs the same pasture with 1, 2 and 4 threads, which must leave
+     * it in the same state */
+    private static void sameWithThreads(String topology, String plants) throws IOException {
+        byte[] expected = null;
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            Pasture pasture = new Pasture(properties(topology, plants), false, 23);
+            run(pasture, 400, threads);
+
+            byte[] bytes = checkpoint(pasture);
+            if (expected == null) {
+                expected = bytes;
+            } else {
+                assertArrayEquals(topology + " with " + plants + " on " + threads + " threads",
+                        expected, bytes);
+            }
+        }
+    }
+
+    @Test public void runsTheSameOnAnyNumberOfThreads() throws IOException {
+        sameWithThreads(Pasture.BOUNDED, Pasture.ENTITIES);
+        sameWithThreads(Pasture.BOUNDED, Pasture.FIELD);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = temporary();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.writeBytes("NOT A CHECKPOINT");
+        }
+        Pasture.load(file);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsOtherVersions() throws IOException {
+        Pasture pasture = new Pasture(properties(Pasture.BOUNDED, Pasture.ENTITIES), false, 3);
+        File file = temporary();
+        pasture.save(file);
+
+        /* The version follows the four bytes of "PAST" */
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(4);
+            out.write(99);
+        }
+        Pasture.load(file);
+    }
+
+    /* A pasture with plants in entity mode, run for a while so that some
+     * handles have been freed */
+    private static Pasture ran() {
+        Pasture pasture = new Pasture(properties(Pasture.BOUNDED, Pasture.ENTITIES), false, 3);
+        run(pasture, 100, 0);
+        return pasture;
+    }
+
+    /* Where the handles of the grid start. They come after the chunks,
+     * and only the int of an empty plant field follows them. */
+    private static int gridHandles(Pasture pasture, File file) {
+        return (int) file.length() - 4 - 4 * pasture.getEntities().size();
+    }
+
+    /* Where the cell counts of the first chunk of the grid start */
+    private static int cellCounts(Pasture pasture, File file) {
+        int chunk = 4 + 2 * Grid.CHUNK_CELLS;
+        return gridHandles(pasture, file) - pasture.getAllocatedChunks() * chunk + 4;
+    }
+
+    private static void loadBroken(Pasture pasture, int at, byte[] bytes) throws IOException {
+        File file = temporary();
+        pasture.save(file);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(at < 0 ? file.length() + at : at);
+            out.write(bytes);
+        }
+
+        try {
+            Pasture.load(file);
+            fail("Loaded a broken checkpoint");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().endsWith("in the checkpoint is broken"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] littleEndian(int value) {
+        return new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+
+    @Test public void rejectsBrokenHandlesInTheGrid() throws IOException {
+        Pasture pasture = ran();
+        File file = temporary();
+        pasture.save(file);
+        int at = gridHandles(pasture, file);
+        file.delete();
+
+        EntityStore store = pasture.getStore();
+        int dead = 0;
+        while (store.isLive(dead)) {
+            dead++;
+        }
+        assertTrue(dead < store.getHandles());
+
+        /* Out of range, dead, and an entity listed in a cell it isn't in */
+        loadBroken(pasture, at, littleEndian(store.getHandles()));
+        loadBroken(pasture, at, littleEndian(-1));
+        loadBroken(pasture, at, littleEndian(dead));
+        int last = pasture.getEntities().size() - 1;
+        Entity moved = pasture.getEntities().get(last);
+        for (Entity e : pasture.getEntities()) {
+            if (store.getCell(e.getHandle()) != store.getCell(moved.getHandle())) {
+                loadBroken(pasture, -8, littleEndian(e.getHandle()));
+                break;
+            }
+        }
+    }
+
+    @Test public void rejectsOvercrowdedCells() throws IOException {
+        Pasture pasture = ran();
+        File file = temporary();
+        pasture.save(file);
+        int at = cellCounts(pasture, file);
+        file.delete();
+
+        loadBroken(pasture, at, new byte[] {Grid.CAPACITY + 1});
+        loadBroken(pasture, at, new byte[] {-1});
+    }
+
+    @Test public void rejectsObstaclesThatAreNoSpecies() throws IOException {
+        Pasture pasture = ran();
+        File file = temporary();
+        pasture.save(file);
+        int at = cellCounts(pasture, file) + Grid.CHUNK_CELLS;
+        file.delete();
+
+        int plant = pasture.getConfig().species("plant").getId();
+        loadBroken(pasture, at, new byte[] {(byte) (plant + 1)});
+        loadBroken(pasture, at, new byte[] {(byte) (pasture.getConfig().size() + 1)});
+    }
+}
@@ -0,0 +1,76 @@
+package pasture;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EntityListTest {
+
+    /* Plants with handles 0 up to n, never added to their pasture */
+    private static Entity[] entities(int n) {
+        Pasture pasture = new Pasture(new PastureProperties(), false, 1);
+        int plant = pasture.getConfig().species("plant").getId();
+
+        Entity[] entities = new Entity[n];
+        for (int i = 0; i < n; i++) {
+            entities[i] = pasture.createEntity(plant);
+            entities[i].setHandle(i);
+        }
+        return entities;
+    }
+
+    private static List<Entity> contents(EntityList list) {
+        List<Entity> contents = new ArrayList<Entity>();
+        for (int i = 0; i < list.size(); i++) {
+            contents.add(list.get(i));
+        }
+        return contents;
+    }
+
+    @Test public void movesTheLastEntityIntoTheHole() {
+        Entity[] e = entities(4);
+        EntityList list = new EntityList();
+        for (Entity entity : e) {
+            list.add(entity);
+        }
+
+        list.remove(e[1]);
+        assertEquals(Arrays.asList(e[0], e[3], e[2]), contents(list));
+
+        list.remove(e[2]);
+        assertEquals(Arrays.asList(e[0], e[3]), contents(list));
+
+        list.remove(e[0]);
+        list.remove(e[3]);
+        assertEquals(0, list.size());
+    }
+
+    /* Random adds and removes, with handles reused like the entity store
+     * does, compared to a list removed from the same way */
+    @Test public void keepsEveryEntityAddedAndNotRemoved() {
+        Random random = new Random(5);
+        Entity[] e = entities(300);
+        EntityList list = new EntityList();
+        List<Entity> expected = new ArrayList<Entity>();
+        boolean[] in = new boolean[e.length];
+
+        for (int step = 0; step < 20000; step++) {
+            int h = random.nextInt(e.length);
+            if (in[h]) {
+                int i = expected.indexOf(e[h]);
+                Entity last = expected.remove(expected.size() - 1);
+                if (last != e[h])
+                    expected.set(i, last);
+
+                list.remove(e[h]);
+            } else {
+                expected.add(e[h]);
+                list.add(e[h]);
+            }
+            in[h] = !in[h];
+
+            assertEquals(expected.size(), list.size());
+        }
+        assertEquals(expected, contents(list));
+    }
+}
@@ -0,0 +1,247 @@
+package pasture;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GridTest {
+
+    /* Entities to put in grids, never added to their pasture */
+    private static Entity[] entities(int n) {
+        Pasture pasture = new Pasture(new PastureProperties(), false, 1);
+        int plant = pasture.getConfig().species("plant").getId();
+
+        Entity[] entities = new Entity[n];
+        for (int i = 0; i < n; i++) {
+            entities[i] = pasture.createEntity(plant);
+        }
+        return entities;
+    }
+
+    /* Every square goes to a cell of its own and back */
+    private static void roundTrip(Grid grid) {
+        Set<Integer> cells = new HashSet<Integer>();
+
+        for (int y = 0; y < grid.getHeight(); y++) {
+            for (int x = 0; x < grid.getWidth(); x++) {
+                int cell = grid.index(x, y);
+                String square = "(" + x + ", " + y + ") of " + grid.getWidth() + " x " + grid.getHeight();
+
+                assertTrue(square, cell >= 0 && cell < grid.size());
+                assertEquals(square, x, grid.x(cell));
+                assertEquals(square, y, grid.y(cell));
+                assertTrue(square, cells.add(cell));
+            }
+        }
+    }
+
+    @Test public void goesBetweenSquaresAndCells() {
+        roundTrip(new Grid(1, 1, false, 1));
+        roundTrip(new Grid(31, 33, false, 1));
+        roundTrip(new Grid(32, 32, false, 1));
+        roundTrip(new Grid(97, 64, true, 1));
+        roundTrip(new Grid(130, 65, true, 1));
+    }
+
+    @Test public void goesBetweenSquaresAndCellsAcrossChunks() {
+        Grid grid = new Grid(200, 100, false, 1);
+        int size = Grid.CHUNK_SIZE;
+
+        /* The last square of a chunk and the first of the next are in
+         * different chunks, in the first and last cell of each */
+        int last = grid.index(size - 1, size - 1);
+        int right = grid.index(size, size - 1);
+        int below = grid.index(size - 1, size);
+
+        assertEquals(Grid.CHUNK_CELLS - 1, Grid.local(last));
+        assertEquals(size * (size - 1), Grid.local(right));
+        assertEquals(size - 1, Grid.local(below));
+        assertEquals(Grid.chunk(last) + 1, Grid.chunk(right));
+        assertTrue(Grid.chunk(below) > Grid.chunk(right));
+
+        assertEquals(grid.firstCell(Grid.chunk(right)), grid.index(size, 0));
+        assertEquals(grid.firstCell(Grid.chunk(below)), grid.index(0, size));
+
+        for (int cell : new int[] { last, right, below }) {
+            assertEquals(cell, grid.index(grid.x(cell), grid.y(cell)));
+        }
+    }
+
+    /* The squares furthest from the origin of an unbounded pasture */
+    @Test public void goesBetweenSquaresAndCellsOfUnboundedPastures() {
+        int size = Pasture.UNBOUNDED_SIZE;
+        Grid grid = new Grid(size, size, true, 3);
+
+        for (int x : new int[] { 0, 1, 31, 32, 33, size / 2, size - 33, size - 32, size - 1 }) {
+            for (int y : new int[] { 0, 31, 32, size / 2, size - 32, size - 1 }) {
+                int cell = grid.index(x, y);
+
+                assertTrue(cell >= 0 && cell < grid.size());
+                assertEquals(x, grid.x(cell));
+                assertEquals(y, grid.y(cell));
+            }
+        }
+
+        assertEquals(grid.index(size - 1, size - 1), grid.index(-1, -1));
+        assertEquals(grid.index(0, 0), grid.index(size, size));
+        assertEquals(grid.chunks() - 1, Grid.chunk(grid.index(-1, -1)));
+    }
+
+    @Test public void wrapsAroundTheEdgesOfATorus() {
+        Grid grid = new Grid(50, 40, true, 1);
+
+        assertTrue(grid.contains(-1, 40));
+        assertTrue(grid.contains(-51, 1000));
+        assertEquals(grid.index(49, 0), grid.index(-1, 40));
+        assertEquals(grid.index(0, 39), grid.index(50, -1));
+        assertEquals(grid.index(1, 1), grid.index(101, -79));
+
+        /* Neighbours across the edges are a step away */
+        int corner = grid.index(0, 0);
+        int across = grid.index(49, 39);
+        assertEquals(-1, grid.dx(corner, across));
+        assertEquals(-1, grid.dy(corner, across));
+        assertEquals(1, grid.dx(across, corner));
+        assertEquals(1, grid.dy(across, corner));
+
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int neighbour = grid.index(grid.x(corner) + dx, grid.y(corner) + dy);
+                assertEquals(dx, grid.dx(corner, neighbour));
+                assertEquals(dy, grid.dy(corner, neighbour));
+            }
+        }
+
+        /* Halfway around is the same both ways, and goes forward */
+        assertEquals(25, grid.dx(corner, grid.index(25, 0)));
+        assertEquals(-24, grid.dx(corner, grid.index(26, 0)));
+        assertEquals(20, grid.dy(corner, grid.index(0, 20)));
+    }
+
+    @Test public void doesNotWrapBoundedGrids() {
+        Grid grid = new Grid(50, 40, false, 1);
+
+        assertFalse(grid.contains(-1, 0));
+        assertFalse(grid.contains(0, 40));
+        assertTrue(grid.contains(49, 39));
+        assertEquals(-49, grid.dx(grid.index(49, 0), grid.index(0, 0)));
+        assertEquals(39, grid.dy(grid.index(0, 0), grid.index(0, 39)));
+    }
+
+    @Test public void releasesChunksWhenEmptied() {
+        Grid grid = new Grid(100, 100, false, 2);
+        Entity[] entities = entities(3);
+        int a = grid.index(5, 5);
+        int b = grid.index(40, 5);
+
+        assertEquals(0, grid.getAllocatedChunks());
+        grid.add(a, entities[0]);
+        grid.add(a, entities[1]);
+        grid.add(b, entities[2]);
+        assertEquals(2, grid.getAllocatedChunks());
+        assertTrue(grid.isAllocated(Grid.chunk(a)));
+
+        assertTrue(grid.remove(a, entities[0]));
+        assertFalse(grid.remove(a, entities[0]));
+        assertTrue(grid.isAllocated(Grid.chunk(a)));
+        assertSame(entities[1], grid.get(a, 0));
+
+        assertTrue(grid.remove(a, entities[1]));
+        assertFalse(grid.isAllocated(Grid.chunk(a)));
+        assertEquals(0, grid.count(a));
+        assertEquals(1, grid.getAllocatedChunks());
+
+        /* An obstacle keeps a chunk like an entity does */
+        grid.setObstacle(b, 1);
+        assertTrue(grid.remove(b, entities[2]));
+        assertTrue(grid.isAllocated(Grid.chunk(b)));
+        assertEquals(1, grid.getObstacle(b));
+
+        grid.setObstacle(b, -1);
+        assertFalse(grid.isAllocated(Grid.chunk(b)));
+        assertEquals(-1, grid.getObstacle(b));
+        assertEquals(0, grid.getAllocatedChunks());
+    }
+
+    @Test public void reusesChunksWithoutTheirBlockedBits() {
+        Grid grid = new Grid(100, 100, true, 2);
+        Entity[] entities = entities(1);
+        int cell = grid.index(10, 10);
+        int other = grid.index(70, 70);
+
+        grid.add(cell, entities[0]);
+        grid.setBlocked(0, cell, true);
+        grid.setBlocked(1, cell, true);
+        assertTrue(grid.isBlocked(0, cell));
+        assertEquals(1L << 10, grid.getBlockedRow(1, cell));
+
+        /* Emptied, the chunk becomes a spare and the next chunk to be
+         * allocated gets it */
+        grid.remove(cell, entities[0]);
+        assertFalse(grid.isBlocked(0, cell));
+
+        grid.add(other, entities[0]);
+        assertFalse(grid.isBlocked(0, other));
+        assertEquals(0, grid.getBlockedRow(0, other));
+        assertEquals(0, grid.getBlockedRow(1, grid.index(10, 70)));
+        assertEquals(0, grid.getBlockedAround(1, grid.index(70, 74)));
+
+        grid.add(cell, entities[0]);
+        assertFalse(grid.isBlocked(1, cell));
+        assertEquals(2, grid.getAllocatedChunks());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsBlockingEmptyCells() {
+        new Grid(10, 10, false, 1).setBlocked(0, 0, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTooManyEntities() {
+        Grid grid = new Grid(10, 10, false, 1);
+        for (Entity e : entities(Grid.CAPACITY + 1)) {
+            grid.add(3, e);
+        }
+    }
+
+    /* Entities walking back and forth over many chunks, compared to
+     * counting them per chunk */
+    @Test public void keepsTheChunksWithSomethingInThem() {
+        Random random = new Random(3);
+        Grid grid = new Grid(150, 90, true, 1);
+        Entity[] entities = entities(60);
+        int[] cells = new int[entities.length];
+        int[] inChunk = new int[grid.chunks()];
+
+        for (int i = 0; i < entities.length; i++) {
+            cells[i] = grid.index(random.nextInt(150), random.nextInt(90));
+            while (grid.count(cells[i]) == Grid.CAPACITY) {
+                cells[i] = grid.index(random.nextInt(150), random.nextInt(90));
+            }
+            grid.add(cells[i], entities[i]);
+            inChunk[Grid.chunk(cells[i])]++;
+        }
+
+        for (int step = 0; step < 5000; step++) {
+            int i = random.nextInt(entities.length);
+            int to = grid.index(grid.x(cells[i]) + random.nextInt(21) - 10,
+                    grid.y(cells[i]) + random.nextInt(21) - 10);
+            if (grid.count(to) == Grid.CAPACITY)
+                continue;
+
+            assertTrue(grid.remove(cells[i], entities[i]));
+            inChunk[Grid.chunk(cells[i])]--;
+            grid.add(to, entities[i]);
+            inChunk[Grid.chunk(to)]++;
+            cells[i] = to;
+
+            int allocated = 0;
+            for (int chunk = 0; chunk < grid.chunks(); chunk++) {
+                assertEquals(inChunk[chunk] > 0, grid.isAllocated(chunk));
+                if (inChunk[chunk] > 0)
+                    allocated++;
+            }
+            assertEquals(allocated, grid.getAllocatedChunks());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pasture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static pasture.TestPastures.properties;
+
+public class ParameterSweepTest {
+
+    private static final String[] VISIONS = { "2", "6" };
+
+    @Test public void runsLikeSinglePastures() throws InterruptedException {
+        PastureProperties base = properties(Pasture.BOUNDED, Pasture.ENTITIES);
+        ParameterSweep sweep = new ParameterSweep(base);
+        sweep.vary("sheep.vision_length", VISIONS);
+        sweep.setTicks(200);
+        sweep.setReplicates(2);
+        sweep.setSeed(40);
+        sweep.setThreads(3);
+
+        List<SweepResult> results = sweep.run();
+        assertEquals(VISIONS.length, results.size());
+
+        for (int v = 0; v < VISIONS.length; v++) {
+            SweepResult result = results.get(v);
+            assertEquals(Collections.singletonMap("sheep.vision_length", VISIONS[v]), result.getSettings());
+            assertEquals(2, result.getRuns().size());
+
+            for (int r = 0; r < 2; r++) {
+                PastureProperties properties = new PastureProperties(base);
+                properties.setValue("sheep.vision_length", VISIONS[v]);
+                SimulationResult expected = new Pasture(properties, false, 40 + r).getEngine().run(200);
+
+                SimulationResult run = result.getRuns().get(r);
+                assertEquals(40 + r, run.getSeed());
+                assertEquals(expected.getPopulation(), run.getPopulation());
+            }
+        }
+    }
+
+    @Test public void printsCsv() throws InterruptedException {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            ParameterSweep.main(new String[]{ "100", "2", "--threads", "2", "--seed", "9",
+                    "sheep.vision_length=2,6" });
+        } finally {
+            System.setOut(out);
+        }
+
+        String[] lines = new String(printed.toByteArray(), StandardCharsets.UTF_8).split("\r?\n");
+        assertEquals(1 + VISIONS.length, lines.length);
+
+        List<String> header = Arrays.asList(lines[0].split(","));
+        assertEquals("sheep.vision_length", header.get(0));
+        assertEquals("runs", header.get(1));
+        assertEquals(0, (header.size() - 2) % 4);
+        int types = (header.size() - 2) / 4;
+        for (int t = 0; t < types; t++) {
+            String type = header.get(2 + 4 * t);
+            assertTrue(type, type.endsWith("_mean"));
+            type = type.substring(0, type.length() - "_mean".length());
+            assertEquals(Arrays.asList(type + "_mean", type + "_min", type + "_max", type + "_extinct"),
+                    header.subList(2 + 4 * t, 6 + 4 * t));
+        }
+
+        for (int v = 0; v < VISIONS.length; v++) {
+            String[] row = lines[1 + v].split(",");
+            assertEquals(header.size(), row.length);
+            assertEquals(VISIONS[v], row[0]);
+            assertEquals(2, Integer.parseInt(row[1]));
+
+            for (int t = 0; t < types; t++) {
+                double mean = Double.parseDouble(row[2 + 4 * t]);
+                int min = Integer.parseInt(row[3 + 4 * t]);
+                int max = Integer.parseInt(row[4 + 4 * t]);
+                int extinct = Integer.parseInt(row[5 + 4 * t]);
+                assertTrue(min <= mean && mean <= max);
+                assertTrue(extinct >= 0 && extinct <= 2);
+            }
+        }
+    }
+}
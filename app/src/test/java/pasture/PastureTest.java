@@ -0,0 +1,187 @@
+package pasture;
+
+import java.awt.Point;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static pasture.TestPastures.properties;
+
+public class PastureTest {
+
+    /* If an entity of the species may enter the cell, by looking at
+     * everything in it */
+    private static boolean fits(Pasture pasture, int species, int cell) {
+        PastureConfig config = pasture.getConfig();
+        int n = pasture.getEntityCount(cell);
+        if (n == Grid.CAPACITY)
+            return false;
+
+        int obstacle = pasture.getObstacle(cell);
+        if (obstacle >= 0 && !config.isCompatible(obstacle, species))
+            return false;
+
+        for (int i = 0; i < n; i++) {
+            if (!config.isCompatible(pasture.getEntityAt(cell, i).getSpecies(), species))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(Pasture pasture, int x, int y) {
+        return !pasture.getTopology().equals(Pasture.BOUNDED)
+                || (x >= 0 && y >= 0 && x < pasture.getWidth() && y < pasture.getHeight());
+    }
+
+    /* Compares freeSpace() of every species that isn't an obstacle, in
+     * and a little around where the pasture started, and the free
+     * neighbours of every entity to fits() */
+    private static void compare(Pasture pasture, String when) {
+        PastureConfig config = pasture.getConfig();
+
+        for (int s = 0; s < config.size(); s++) {
+            if (pasture.isObstacle(s))
+                continue;
+
+            Entity probe = pasture.createEntity(s);
+            for (int y = -3; y < 33; y++) {
+                for (int x = -3; x < 43; x++) {
+                    String square = config.species(s).getType() + " at (" + x + ", " + y + ") " + when;
+
+                    if (!contains(pasture, x, y)) {
+                        assertFalse(square, pasture.freeSpace(x, y, probe));
+                        continue;
+                    }
+
+                    int cell = pasture.getCell(x, y);
+                    assertEquals(square, fits(pasture, s, cell), pasture.freeSpace(cell, probe));
+                    assertEquals(square, fits(pasture, s, cell), pasture.freeSpace(x, y, probe));
+                }
+            }
+        }
+
+        int[] buffer = new int[9];
+        for (Entity e : pasture.getEntities()) {
+            int cell = pasture.getCell(e);
+            int x = pasture.getX(cell);
+            int y = pasture.getY(cell);
+
+            List<Integer> expected = new ArrayList<Integer>();
+            List<Point> points = new ArrayList<Point>();
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (!contains(pasture, x + dx, y + dy))
+                        continue;
+
+                    int neighbour = pasture.getCell(x + dx, y + dy);
+                    if (fits(pasture, e.getSpecies(), neighbour)) {
+                        expected.add(neighbour);
+                        points.add(new Point(pasture.getX(neighbour), pasture.getY(neighbour)));
+                    }
+                }
+            }
+
+            int n = pasture.getFreeNeighbours(e, buffer);
+            List<Integer> found = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                found.add(buffer[i]);
+            }
+
+            String around = e.getType() + " at (" + x + ", " + y + ") " + when;
+            assertEquals(around, expected, found);
+            assertEquals(around, points, pasture.getFreeNeighbours(e));
+        }
+    }
+
+    /* A random cell in and a little around where the pasture started */
+    private static int randomCell(Pasture pasture, Random random) {
+        while (true) {
+            int x = random.nextInt(46) - 3;
+            int y = random.nextInt(36) - 3;
+            if (contains(pasture, x, y))
+                return pasture.getCell(x, y);
+        }
+    }
+
+    /* Adds, moves and removes entities and obstacles at random */
+    private static void change(Pasture pasture, Random random) {
+        PastureConfig config = pasture.getConfig();
+        int fence = config.id("fence");
+
+        for (int i = 0; i < 40; i++) {
+            int cell = randomCell(pasture, random);
+            List<Entity> entities = pasture.getEntities();
+
+            switch (random.nextInt(5)) {
+            case 0:
+                if (pasture.getObstacle(cell) < 0)
+                    pasture.addObstacle(fence, cell);
+                break;
+            case 1:
+                pasture.removeObstacle(cell);
+                break;
+            case 2:
+                int species = random.nextInt(config.size());
+                if (!pasture.isObstacle(species) && !(pasture.hasPlantField()
+                        && species == config.id("plant")) && fits(pasture, species, cell))
+                    pasture.addEntity(pasture.createEntity(species), cell);
+                break;
+            case 3:
+                if (!entities.isEmpty()) {
+                    Entity e = entities.get(random.nextInt(entities.size()));
+                    if (fits(pasture, e.getSpecies(), cell))
+                        pasture.moveEntity(e, cell);
+                }
+                break;
+            default:
+                if (!entities.isEmpty())
+                    pasture.removeEntity(entities.get(random.nextInt(entities.size())));
+                break;
+            }
+        }
+    }
+
+    private static void checkBlocked(String topology, String plants, long seed) {
+        Random random = new Random(seed);
+        Pasture pasture = new Pasture(properties(topology, plants), false, seed);
+        compare(pasture, "at the start of a " + topology + " pasture with " + plants);
+
+        for (int round = 0; round < 15; round++) {
+            pasture.getEngine().run(25);
+            compare(pasture, "in tick " + pasture.getTick() + " of a " + topology + " pasture with " + plants);
+
+            change(pasture, random);
+            compare(pasture, "after changes in tick " + pasture.getTick() + " of a " + topology
+                    + " pasture with " + plants);
+        }
+    }
+
+    @Test public void blocksLikeTheEntitiesInBoundedPastures() {
+        checkBlocked(Pasture.BOUNDED, Pasture.ENTITIES, 1);
+        checkBlocked(Pasture.BOUNDED, Pasture.FIELD, 2);
+    }
+
+    @Test public void blocksLikeTheEntitiesInTorusPastures() {
+        checkBlocked(Pasture.TORUS, Pasture.ENTITIES, 3);
+        checkBlocked(Pasture.TORUS, Pasture.FIELD, 4);
+    }
+
+    @Test public void blocksLikeTheEntitiesInUnboundedPastures() {
+        checkBlocked(Pasture.UNBOUNDED, Pasture.ENTITIES, 5);
+        checkBlocked(Pasture.UNBOUNDED, Pasture.FIELD, 6);
+    }
+
+    /* New compatibilities are picked up when the next tick starts */
+    @Test public void blocksLikeReloadedSettings() {
+        Pasture pasture = new Pasture(properties(Pasture.BOUNDED, Pasture.ENTITIES), false, 7);
+        pasture.getEngine().run(10);
+
+        pasture.getProperties().setValue("fence.shares_with", "wolf");
+        pasture.getProperties().setValue("wolf.shares_with", "sheep");
+        pasture.reloadConfig();
+        pasture.getEngine().run(1);
+        compare(pasture, "after reloading");
+
+        change(pasture, new Random(7));
+        compare(pasture, "after reloading and changes");
+    }
+}
@@ -0,0 +1,180 @@
+package pasture;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PlantFieldTest {
+
+    /* Big enough for the chunks with plants to be split into bands */
+    private static final int WIDTH  = 300;
+    private static final int HEIGHT = 200;
+
+    /* A field with plants of every density in random squares, on a grid
+     * with some squares blocked for the plants */
+    private static PlantField field(Grid grid, long seed) {
+        Random random = new Random(seed);
+        PlantField field = new PlantField(grid, 0);
+
+        for (int i = 0; i < 600; i++) {
+            field.set(grid.index(random.nextInt(grid.getWidth()), random.nextInt(grid.getHeight())),
+                    1 + random.nextInt(PlantField.MAX_DENSITY));
+        }
+        for (int i = 0; i < 4000; i++) {
+            int cell = grid.index(random.nextInt(grid.getWidth()), random.nextInt(grid.getHeight()));
+            grid.setObstacle(cell, 0);
+            grid.setBlocked(0, cell, true);
+        }
+        return field;
+    }
+
+    /* The new plants of the last step, sorted */
+    private static int[] seeded(PlantField field, int born) {
+        int[] cells = Arrays.copyOf(field.getSeeded(), born);
+        Arrays.sort(cells);
+        return cells;
+    }
+
+    /* Grows the field one step square by square: every plant grows a
+     * density, and every free square next to a fully grown plant that
+     * isn't blocked gets a new plant */
+    private static int[][] step(Grid grid, int[][] density) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int[][] grown = new int[height][width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int d = density[y][x];
+                if (d > 0) {
+                    grown[y][x] = Math.min(d + 1, PlantField.MAX_DENSITY);
+                    continue;
+                }
+
+                boolean near = false;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if (grid.contains(x + dx, y + dy)) {
+                            int cell = grid.index(x + dx, y + dy);
+                            near |= density[grid.y(cell)][grid.x(cell)] == PlantField.MAX_DENSITY;
+                        }
+                    }
+                }
+                grown[y][x] = near && !grid.isBlocked(0, grid.index(x, y)) ? 1 : 0;
+            }
+        }
+        return grown;
+    }
+
+    private static void growLikeTheRules(boolean wraps, long seed) {
+        Grid grid = new Grid(WIDTH, HEIGHT, wraps, 1);
+        PlantField field = field(grid, seed);
+
+        int[][] density = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                density[y][x] = field.get(grid.index(x, y));
+            }
+        }
+
+        for (int i = 1; i <= 12; i++) {
+            int[][] grown = step(grid, density);
+            int born = field.grow(null);
+
+            List<Integer> expected = new ArrayList<Integer>();
+            int count = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int cell = grid.index(x, y);
+                    assertEquals("(" + x + ", " + y + ") after step " + i, grown[y][x], field.get(cell));
+
+                    if (grown[y][x] > 0)
+                        count++;
+                    if (grown[y][x] == 1 && density[y][x] == 0)
+                        expected.add(cell);
+                }
+            }
+
+            Collections.sort(expected);
+            assertEquals(count, field.getCount());
+            assertEquals(expected.size(), born);
+
+            int[] seeded = seeded(field, born);
+            for (int j = 0; j < born; j++) {
+                assertEquals((int) expected.get(j), seeded[j]);
+            }
+            density = grown;
+        }
+    }
+
+    @Test public void growsLikeTheRulesOnBoundedGrids() {
+        growLikeTheRules(false, 1);
+    }
+
+    @Test public void growsLikeTheRulesOnTorusGrids() {
+        growLikeTheRules(true, 2);
+    }
+
+    /* Two fields alike, one grown on the calling thread and one by a pool */
+    private static void growInParallel(boolean wraps, long seed) {
+        Grid grid = new Grid(WIDTH, HEIGHT, wraps, 1);
+        PlantField sequential = field(grid, seed);
+        PlantField parallel = new PlantField(grid, 0);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                parallel.set(grid.index(x, y), sequential.get(grid.index(x, y)));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 1; i <= 40; i++) {
+                int born = sequential.grow(null);
+                assertEquals("Step " + i, born, parallel.grow(pool));
+                assertArrayEquals("Step " + i, Arrays.copyOf(sequential.getSeeded(), born),
+                        Arrays.copyOf(parallel.getSeeded(), born));
+
+                assertEquals(sequential.getCount(), parallel.getCount());
+                assertEquals(sequential.getAllocatedChunks(), parallel.getAllocatedChunks());
+                for (int chunk = 0; chunk < grid.chunks(); chunk++) {
+                    assertEquals(sequential.isAllocated(chunk), parallel.isAllocated(chunk));
+                }
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        int cell = grid.index(x, y);
+                        assertEquals("(" + x + ", " + y + ") after step " + i,
+                                sequential.get(cell), parallel.get(cell));
+                    }
+                }
+            }
+
+            /* By then the plants are in more chunks than a band */
+            assertTrue(parallel.getAllocatedChunks() > 16);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void growsTheSameInParallelOnBoundedGrids() {
+        growInParallel(false, 3);
+    }
+
+    @Test public void growsTheSameInParallelOnTorusGrids() {
+        growInParallel(true, 4);
+    }
+
+    @Test public void growsNothingWithoutPlants() {
+        Grid grid = new Grid(WIDTH, HEIGHT, false, 1);
+        PlantField field = new PlantField(grid, 0);
+
+        assertEquals(0, field.grow(null));
+        assertEquals(0, field.getCount());
+        assertEquals(0, field.getAllocatedChunks());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDensitiesAboveFullyGrown() {
+        new PlantField(new Grid(10, 10, false, 1), 0).set(0, PlantField.MAX_DENSITY + 1);
+    }
+}
@@ -0,0 +1,128 @@
+package pasture;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static pasture.TestPastures.properties;
+
+public class PopulationLogTest {
+
+    private static final int TICKS = 300;
+
+    private static File temporary(String suffix) throws IOException {
+        File file = File.createTempFile("pasture", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /* Runs a pasture with a log into the file and closes the log. Returns
+     * the population at the start, by species. */
+    private static int[] runLogged(Pasture pasture, File file) throws IOException {
+        int[] start = new int[pasture.getConfig().size()];
+        for (int s = 0; s < start.length; s++) {
+            start[s] = pasture.getCount(s);
+        }
+
+        PopulationLog log = new PopulationLog(file, pasture.getConfig());
+        pasture.setPopulationLog(log);
+        pasture.getEngine().run(TICKS);
+        log.close();
+        return start;
+    }
+
+    /* Checks the rows of a log, each the tick and then the population,
+     * births, starved and eaten of each species, against each other and
+     * against the pasture the log is of */
+    private static void check(Pasture pasture, int[] start, List<int[]> rows) {
+        int n = start.length;
+        assertEquals(TICKS, rows.size());
+
+        int[] population = start;
+        for (int t = 0; t < rows.size(); t++) {
+            int[] row = rows.get(t);
+            assertEquals(1 + 4 * n, row.length);
+            assertEquals(t + 1, row[0]);
+
+            for (int s = 0; s < n; s++) {
+                int births = row[1 + n + s];
+                int starved = row[1 + 2 * n + s];
+                int eaten = row[1 + 3 * n + s];
+                assertEquals("species " + s + " in tick " + row[0],
+                        population[s] + births - starved - eaten, row[1 + s]);
+            }
+            population = Arrays.copyOfRange(row, 1, 1 + n);
+        }
+
+        for (int s = 0; s < n; s++) {
+            assertEquals(pasture.getCount(s), population[s]);
+        }
+    }
+
+    @Test public void writesCsv() throws IOException {
+        Pasture pasture = new Pasture(properties(Pasture.BOUNDED, Pasture.ENTITIES), false, 7);
+        File file = temporary(".csv");
+        int[] start = runLogged(pasture, file);
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        file.delete();
+
+        PastureConfig config = pasture.getConfig();
+        List<String> header = new ArrayList<String>();
+        header.add("tick");
+        for (String suffix : new String[]{ "", "_births", "_starved", "_eaten" }) {
+            for (int s = 0; s < config.size(); s++) {
+                header.add(config.species(s).getType() + suffix);
+            }
+        }
+        assertEquals(header, Arrays.asList(lines.get(0).split(",")));
+
+        List<int[]> rows = new ArrayList<int[]>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split(",");
+            int[] row = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                row[i] = Integer.parseInt(values[i]);
+            }
+            rows.add(row);
+        }
+        check(pasture, start, rows);
+    }
+
+    @Test public void writesBinary() throws IOException {
+        Pasture pasture = new Pasture(properties(Pasture.TORUS, Pasture.FIELD), false, 7);
+        File file = temporary(".log");
+        int[] start = runLogged(pasture, file);
+
+        PastureConfig config = pasture.getConfig();
+        List<int[]> rows = new ArrayList<int[]>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            assertEquals(config.size(), in.readInt());
+            for (int s = 0; s < config.size(); s++) {
+                assertEquals(config.species(s).getType(), in.readUTF());
+            }
+
+            int[] row = new int[1 + 4 * config.size()];
+            while (in.available() > 0) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = in.readInt();
+                }
+                rows.add(row.clone());
+            }
+        }
+        file.delete();
+        check(pasture, start, rows);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesRowsOnceClosed() throws IOException {
+        Pasture pasture = new Pasture(properties(Pasture.BOUNDED, Pasture.ENTITIES), false, 7);
+        File file = temporary(".csv");
+        PopulationLog log = new PopulationLog(file, pasture.getConfig());
+        log.close();
+        log.close();
+        log.record(pasture);
+    }
+}
@@ -0,0 +1,108 @@
+package pasture;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest {
+
+    /* The nearest of the cells by steps, then straight line distance and
+     * then the lowest cell, by looking at every one of them */
+    private static int bruteForce(Grid grid, Collection<Integer> cells, int from, int radius) {
+        int best = -1;
+        int bestSteps = radius + 1;
+        int bestSquare = Integer.MAX_VALUE;
+
+        for (int cell : cells) {
+            int dx = Math.abs(grid.dx(from, cell));
+            int dy = Math.abs(grid.dy(from, cell));
+            int steps = Math.max(dx, dy);
+            int square = dx * dx + dy * dy;
+
+            if (steps > radius)
+                continue;
+
+            if (steps < bestSteps || (steps == bestSteps
+                    && (square < bestSquare || (square == bestSquare && cell < best)))) {
+                best = cell;
+                bestSteps = steps;
+                bestSquare = square;
+            }
+        }
+        return best;
+    }
+
+    /* Fills a board at random, moves and removes some of the entities,
+     * and compares nearest() from random cells to the brute force */
+    private static void compare(int width, int height, boolean wraps, int entities, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new Grid(width, height, wraps, 1);
+        SpatialIndex index = new SpatialIndex(grid);
+        Map<Integer, Integer> cells = new HashMap<Integer, Integer>();
+
+        for (int handle = 0; handle < entities; handle++) {
+            int cell = grid.index(random.nextInt(width), random.nextInt(height));
+            index.add(handle, cell);
+            cells.put(handle, cell);
+        }
+
+        for (int handle = 0; handle < entities; handle += 3) {
+            int cell = grid.index(random.nextInt(width), random.nextInt(height));
+            index.move(handle, cells.get(handle), cell);
+            cells.put(handle, cell);
+        }
+        for (int handle = 1; handle < entities; handle += 5) {
+            index.remove(handle, cells.remove(handle));
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            int from = grid.index(random.nextInt(width), random.nextInt(height));
+            int radius = random.nextInt(Math.max(width, height) + 2);
+
+            assertEquals(width + " x " + height + (wraps ? " torus" : "") + " from ("
+                    + grid.x(from) + ", " + grid.y(from) + ") radius " + radius,
+                    bruteForce(grid, cells.values(), from, radius), index.nearest(from, radius));
+        }
+    }
+
+    @Test public void findsTheNearestOnBoundedBoards() {
+        compare(35, 24, false, 20, 1);
+        compare(64, 64, false, 5, 2);
+        compare(100, 37, false, 300, 3);
+        compare(1, 50, false, 10, 4);
+    }
+
+    @Test public void findsTheNearestOnTorusBoards() {
+        compare(35, 24, true, 20, 5);
+        compare(64, 64, true, 5, 6);
+        compare(100, 37, true, 300, 7);
+        compare(9, 7, true, 6, 8);
+        compare(3, 70, true, 4, 9);
+    }
+
+    @Test public void breaksTiesByDistanceAndThenCell() {
+        Grid grid = new Grid(40, 40, false, 1);
+        SpatialIndex index = new SpatialIndex(grid);
+        int from = grid.index(20, 20);
+
+        /* Two steps away, one straight and one diagonal */
+        index.add(0, grid.index(22, 22));
+        index.add(1, grid.index(20, 22));
+        assertEquals(grid.index(20, 22), index.nearest(from, 5));
+
+        /* As far away as the straight one, but a lower cell */
+        index.add(2, grid.index(20, 18));
+        assertEquals(Math.min(grid.index(20, 18), grid.index(20, 22)), index.nearest(from, 5));
+
+        assertEquals(-1, index.nearest(from, 1));
+    }
+
+    @Test public void findsTheNearestAcrossTheEdgeOfATorus() {
+        Grid grid = new Grid(50, 30, true, 1);
+        SpatialIndex index = new SpatialIndex(grid);
+
+        index.add(0, grid.index(48, 29));
+        index.add(1, grid.index(5, 5));
+        assertEquals(grid.index(48, 29), index.nearest(grid.index(1, 1), 3));
+    }
+}
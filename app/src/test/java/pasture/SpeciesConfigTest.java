@@ -0,0 +1,41 @@
+package pasture;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpeciesConfigTest {
+
+    private static PastureConfig configWith(String key, String value) {
+        PastureProperties properties = new PastureProperties();
+        properties.setValue(key, value);
+        return new PastureConfig(properties);
+    }
+
+    @Test public void acceptsDelaysUpToTheHorizon() {
+        PastureConfig config = configWith("sheep.move_delay", "" + SpeciesConfig.MAX_DELAY);
+        assertEquals(SpeciesConfig.MAX_DELAY, config.species("sheep").getMoveDelay());
+
+        /* Unset delays are 0, like for fences */
+        assertEquals(0, config.species("fence").getMoveDelay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDelaysBeyondTheHorizon() {
+        configWith("wolf.no_food_limit", "" + (SpeciesConfig.MAX_DELAY + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMoveDelays() {
+        configWith("sheep.move_delay", "-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeDuplicateLimits() {
+        configWith("plant.duplicate_limit", "-10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeNoFoodLimits() {
+        configWith("wolf.no_food_limit", "-200");
+    }
+}
@@ -0,0 +1,20 @@
+package pasture;
+
+/**
+ * Settings the tests make small pastures from: the bundled defaults on
+ * a 40 by 30 pasture.
+ */
+class TestPastures {
+
+    private TestPastures() {
+    }
+
+    static PastureProperties properties(String topology, String plants) {
+        PastureProperties properties = new PastureProperties();
+        properties.setValue("pasture.topology", topology);
+        properties.setValue("pasture.plants", plants);
+        properties.setValue("pasture.width", "40");
+        properties.setValue("pasture.height", "30");
+        return properties;
+    }
+}
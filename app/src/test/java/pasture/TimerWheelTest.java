@@ -0,0 +1,162 @@
+package pasture;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    /* The handles woken up by the next tick, sorted */
+    private static List<Integer> advance(TimerWheel wheel) {
+        int n = wheel.advance();
+        List<Integer> woken = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            woken.add(wheel.getDue()[i]);
+        }
+        Collections.sort(woken);
+        return woken;
+    }
+
+    /* Advances until the tick and returns the tick the handle woke up in,
+     * or -1 if it didn't */
+    private static int wokenIn(TimerWheel wheel, int handle, int until) {
+        int woken = -1;
+        while (wheel.getTick() < until) {
+            if (advance(wheel).contains(handle)) {
+                assertEquals("Woken up twice", -1, woken);
+                woken = wheel.getTick();
+            }
+        }
+        return woken;
+    }
+
+    @Test public void wakesUpInTheTickScheduled() {
+        int[] delays = { 1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 8191, 100000,
+                TimerWheel.HORIZON - 2, TimerWheel.HORIZON - 1 };
+
+        for (int start : new int[] { 0, 1, 63, 4090, 262143 }) {
+            for (int delay : delays) {
+                TimerWheel wheel = new TimerWheel();
+                wheel.start(start);
+                wheel.schedule(7, start + delay);
+
+                assertEquals("Delay " + delay + " from tick " + start,
+                        start + delay, wokenIn(wheel, 7, start + delay + 70));
+            }
+        }
+    }
+
+    @Test public void cascadesFromEveryLevel() {
+        TimerWheel wheel = new TimerWheel();
+        wheel.start(4000);
+
+        /* Level 2, then level 1 and last level 0 when they come up */
+        wheel.schedule(1, 4000 + 70000);
+        wheel.schedule(2, 4000 + 4100);
+        wheel.schedule(3, 4000 + 100);
+
+        int[] woken = new int[4];
+        while (wheel.getTick() < 4000 + 70100) {
+            for (int handle : advance(wheel)) {
+                woken[handle] = wheel.getTick();
+            }
+        }
+
+        assertEquals(4000 + 70000, woken[1]);
+        assertEquals(4000 + 4100, woken[2]);
+        assertEquals(4000 + 100, woken[3]);
+    }
+
+    @Test public void skipsTheEntriesOfEarlierSchedules() {
+        TimerWheel wheel = new TimerWheel();
+
+        /* Later, earlier and much later, the old entries stay in their slots */
+        wheel.schedule(3, 100);
+        wheel.schedule(3, 5);
+        wheel.schedule(3, 5000);
+        assertEquals(5000, wokenIn(wheel, 3, 10000));
+
+        wheel.schedule(3, 10000 + 5000);
+        wheel.schedule(3, 10000 + 70);
+        assertEquals(10000 + 70, wokenIn(wheel, 3, 20000));
+    }
+
+    @Test public void reusesHandlesAfterCancel() {
+        TimerWheel wheel = new TimerWheel();
+
+        wheel.schedule(4, 50);
+        wheel.cancel(4);
+        assertEquals(-1, wokenIn(wheel, 4, 100));
+
+        /* A new entity gets the handle while the entry of the old one is
+         * still in the wheel */
+        wheel.schedule(4, 300);
+        wheel.cancel(4);
+        wheel.schedule(4, 200);
+        assertEquals(200, wokenIn(wheel, 4, 400));
+
+        /* Cancelling a handle that never was scheduled does nothing */
+        wheel.cancel(1000);
+        assertTrue(advance(wheel).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheHorizon() {
+        TimerWheel wheel = new TimerWheel();
+        wheel.schedule(0, TimerWheel.HORIZON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsThePast() {
+        TimerWheel wheel = new TimerWheel();
+        wheel.advance();
+        wheel.schedule(0, 1);
+    }
+
+    /* Random schedules, reschedules and cancels compared tick by tick to
+     * counting down the tick of each handle */
+    @Test public void wakesUpLikeACountdown() {
+        Random random = new Random(12);
+        TimerWheel wheel = new TimerWheel();
+        int handles = 200;
+        int[] wake = new int[handles];
+        Arrays.fill(wake, -1);
+
+        for (int tick = 0; tick < 3 * TimerWheel.HORIZON / 2; tick++) {
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int h = 0; h < handles; h++) {
+                if (wake[h] == tick + 1) {
+                    expected.add(h);
+                    wake[h] = -1;
+                }
+            }
+
+            assertEquals("Tick " + (tick + 1), expected, advance(wheel));
+
+            for (int i = 0; i < 3; i++) {
+                int h = random.nextInt(handles);
+                int choice = random.nextInt(10);
+
+                if (choice == 0) {
+                    wheel.cancel(h);
+                    wake[h] = -1;
+                    continue;
+                }
+
+                int delay;
+                if (choice < 5) {
+                    delay = 1 + random.nextInt(64);
+                } else if (choice < 8) {
+                    delay = 1 + random.nextInt(4096);
+                } else if (choice < 9) {
+                    delay = 1 + random.nextInt(TimerWheel.HORIZON - 1);
+                } else {
+                    delay = TimerWheel.HORIZON - 1;
+                }
+
+                wheel.schedule(h, wheel.getTick() + delay);
+                wake[h] = wheel.getTick() + delay;
+            }
+        }
+    }
+}